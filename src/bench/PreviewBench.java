@@ -0,0 +1,85 @@
+package bench;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Shape;
+import java.awt.geom.Line2D;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+import javax.swing.SwingUtilities;
+
+import server.DrawingPanel;
+
+/**
+ * Measures what the server's white board allocates for every preview it is sent. Users, each dragging
+ * a line that grows as they go, send previews to the server's drawing panel on the event dispatch thread,
+ * and the bytes allocated there are read from the thread's own counter. The line each preview carries is
+ * allocated by the harness, so what it costs on its own is measured separately and reported alongside.
+ * Run with {@code java bench.PreviewBench}, headless or not, setting the number of previews per round
+ * with {@code -Dn=}.
+ *
+ * @author Si Yong Lim
+ */
+public class PreviewBench {
+	private static final int USERS = 20;
+	private static final int ROUNDS = 5;
+
+	// Keeps the lines measured on their own from being optimised away
+	private static final Object[] sink = new Object[USERS];
+
+	public static void main(String[] args) throws Exception {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		DrawingPanel[] panel = new DrawingPanel[1];
+		SwingUtilities.invokeAndWait(() -> panel[0] = new DrawingPanel(null));
+		String[] users = new String[USERS];
+		for (int i = 0; i < USERS; i++) {
+			users[i] = "user" + i;
+		}
+		Font font = new Font("Arial", Font.PLAIN, 20);
+		int previews = Integer.getInteger("n", 1_000_000);
+
+		for (int round = 0; round < ROUNDS; round++) {
+			long[] results = new long[4];
+			SwingUtilities.invokeAndWait(() -> {
+				long thread = Thread.currentThread().getId();
+				long collections = collections();
+				long start = System.nanoTime();
+				long allocated = threads.getThreadAllocatedBytes(thread);
+				for (int n = 0; n < previews; n++) {
+					int user = n % USERS;
+					panel[0].drawPreview(users[user], line(user, n), Color.RED, 1 + user % 4, null, 0, 0, font);
+				}
+				results[0] = threads.getThreadAllocatedBytes(thread) - allocated;
+				results[1] = System.nanoTime() - start;
+				results[2] = collections() - collections;
+
+				allocated = threads.getThreadAllocatedBytes(thread);
+				for (int n = 0; n < previews; n++) {
+					int user = n % USERS;
+					sink[user] = line(user, n);
+				}
+				results[3] = threads.getThreadAllocatedBytes(thread) - allocated;
+			});
+			System.out.printf("round %d: %.1f bytes/preview, of which the harness's own line %.1f, %.0f ns/preview, %d GCs per %d previews%n",
+					round, (double) results[0] / previews, (double) results[3] / previews, (double) results[1] / previews, results[2], previews);
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * @return the line a user is previewing after sending n previews between them all
+	 */
+	private static Shape line(int user, int n) {
+		int step = (n / USERS) % 200;
+		return new Line2D.Float(user * 40, user * 30, user * 40 + step, user * 30 + step / 2);
+	}
+
+	private static long collections() {
+		long count = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += collector.getCollectionCount();
+		}
+		return count;
+	}
+}
@@ -0,0 +1,73 @@
+package bench;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+
+import remote.LatencyStats;
+import remote.Sockets;
+import remote.TunedSocketFactory;
+
+/**
+ * Compares how long RMI calls take over each kind of socket the white board can use. An object echoing
+ * back whatever it is sent is exported on loopback with each socket factory in turn, and is called with
+ * a small argument, about the size of a preview, and a large one, about the size of an image of the white board.
+ * Every mode is measured twice so that the first round can be told apart from a JVM still warming up.
+ * Run with {@code java bench.SocketLatencyBench}.
+ *
+ * @author Si Yong Lim
+ */
+public class SocketLatencyBench {
+	private static final int SMALL_BYTES = 40, SMALL_CALLS = 2000;
+	private static final int LARGE_BYTES = 200_000, LARGE_CALLS = 100;
+	private static final int ROUNDS = 2;
+
+	/**
+	 * Sends back whatever it is sent
+	 */
+	public interface Echo extends Remote {
+		byte[] echo(byte[] bytes) throws RemoteException;
+	}
+
+	private static class Echoer implements Echo {
+		@Override
+		public byte[] echo(byte[] bytes) {
+			return bytes;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		byte[] small = new byte[SMALL_BYTES];
+		byte[] large = new byte[LARGE_BYTES];
+		for (int i = 0; i < large.length; i++) {
+			// Repeats, so that it compresses about as well as a drawing
+			large[i] = (byte) (i % 97);
+		}
+		for (int round = 0; round < ROUNDS; round++) {
+			for (Sockets sockets : Sockets.values()) {
+				TunedSocketFactory factory = TunedSocketFactory.of(sockets);
+				Echoer echoer = new Echoer();
+				Echo stub = (Echo) UnicastRemoteObject.exportObject(echoer, 0, factory, factory);
+				LatencyStats smallStats = new LatencyStats(sockets + ", " + SMALL_BYTES + " B", false);
+				LatencyStats largeStats = new LatencyStats(sockets + ", " + LARGE_BYTES / 1000 + " KB", false);
+				time(stub, small, SMALL_CALLS, smallStats);
+				time(stub, large, LARGE_CALLS, largeStats);
+				System.out.println(smallStats);
+				System.out.println(largeStats);
+				UnicastRemoteObject.unexportObject(echoer, true);
+			}
+		}
+		System.exit(0);
+	}
+
+	private static void time(Echo stub, byte[] bytes, int calls, LatencyStats stats) throws RemoteException {
+		for (int i = 0; i < calls; i++) {
+			long start = System.nanoTime();
+			byte[] echoed = stub.echo(bytes);
+			stats.record(System.nanoTime() - start);
+			if (echoed.length != bytes.length) {
+				throw new IllegalStateException("Echoed " + echoed.length + " bytes rather than " + bytes.length);
+			}
+		}
+	}
+}
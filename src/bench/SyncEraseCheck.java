@@ -0,0 +1,123 @@
+package bench;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.util.List;
+
+import remote.Bounds;
+import remote.Erasure;
+import remote.Operation;
+import remote.OperationCodec;
+import remote.SceneLog;
+import remote.StrokeEraser;
+import remote.TiledCanvas;
+
+/**
+ * Checks that a client synced from a snapshot can still erase strokes drawn before it joined.
+ * A client is synced from the server's white board after it has been cleared, the server then erases
+ * strokes drawn before the sync, and both canvases have to come out the same. Also checks that erased
+ * strokes stop being sent once the log has been compacted.
+ * Run with {@code java bench.SyncEraseCheck}, exiting with 1 on failure.
+ *
+ * @author Si Yong Lim
+ */
+public class SyncEraseCheck {
+	private static int failures = 0;
+
+	public static void main(String[] args) throws Exception {
+		SceneLog server = new SceneLog();
+		long id = 1;
+		server.append(Operation.shape("manager", id++, new Line2D.Float(0, 0, 300, 300), Color.GREEN, 4));
+		server.clear();
+		Operation older = Operation.shape("manager", id++, polyline(10, 500, 100), Color.RED, 6);
+		Operation kept = Operation.shape("alice", id++, new Line2D.Float(10, 200, 500, 200), Color.BLUE, 6);
+		Operation gone = Operation.shape("alice", id++, new Line2D.Float(10, 300, 500, 300), Color.BLACK, 6);
+		server.append(older);
+		server.append(kept);
+		server.append(gone);
+		server.append(Operation.delete("manager", id++, List.of(Erasure.whole(gone))));
+		long before = server.getSequence();
+
+		// Joins after the clear, so it is sent a snapshot rather than the operations
+		check("snapshot needed", server.since(0) == null);
+		byte[] snapshot = server.capture().toByteArray();
+		SceneLog client = new SceneLog();
+		client.restore(SceneLog.Contents.read(new ByteArrayInputStream(snapshot)), server.getSequence());
+		TiledCanvas clientCanvas = new TiledCanvas();
+		client.replay(clientCanvas);
+		check("snapshot leaves out the erased stroke", client.size() == 2);
+
+		// The server splits a stroke drawn before the sync, and the client applies the same delete
+		Operation split = delete(server, "manager", id, 250, 100);
+		check("stroke found to split", split != null);
+		server.append(split);
+		Operation received = OperationCodec.decode(OperationCodec.encode(split));
+		client.append(received);
+		Rectangle area = client.getArea(received);
+		check("client erased the stroke", area != null);
+		if (area != null) {
+			client.replay(clientCanvas, area);
+		}
+		TiledCanvas serverCanvas = new TiledCanvas();
+		server.replay(serverCanvas);
+		check("canvases match", same(serverCanvas, clientCanvas));
+		check("client's eraser finds strokes from before the sync", client.hitTest(300, 200, 3) != null);
+
+		check("only what is on the white board is kept", server.size() == client.size() && server.size() == 3);
+
+		// Most of the log is now deletes and what they erased, so it is compacted as the next operation comes in
+		server.append(Operation.shape("alice", id + 2, new Line2D.Float(10, 400, 500, 400), Color.BLUE, 6));
+		check("log compacted", server.since(before) == null);
+
+		System.out.println(failures == 0 ? "PASS" : failures + " FAILED");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	/**
+	 * @return a horizontal freehand stroke with a point every 10 pixels, which the eraser can split
+	 */
+	private static Path2D polyline(float from, float to, float y) {
+		Path2D.Float path = new Path2D.Float();
+		path.moveTo(from, y);
+		for (float x = from + 10; x <= to; x += 10) {
+			path.lineTo(x, y);
+		}
+		return path;
+	}
+
+	/**
+	 * Erases across a horizontal stroke at a point, as the stroke eraser would
+	 */
+	private static Operation delete(SceneLog scene, String username, long strokeId, float x, float y) {
+		List<Erasure> erasures = StrokeEraser.erase(scene, new float[] { x, y - 20, x, y + 20 }, StrokeEraser.radius(10));
+		return erasures.isEmpty() ? null : Operation.delete(username, strokeId, erasures);
+	}
+
+	private static boolean same(TiledCanvas a, TiledCanvas b) {
+		Rectangle area = Bounds.union(a.getBounds(), b.getBounds());
+		if (area == null) {
+			return true;
+		}
+		BufferedImage first = a.toImage(area, Long.MAX_VALUE);
+		BufferedImage second = b.toImage(area, Long.MAX_VALUE);
+		for (int y = 0; y < first.getHeight(); y++) {
+			for (int x = 0; x < first.getWidth(); x++) {
+				if (first.getRGB(x, y) != second.getRGB(x, y)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private static void check(String what, boolean passed) {
+		System.out.println((passed ? "ok     " : "FAILED ") + what);
+		if (!passed) {
+			failures++;
+		}
+	}
+}
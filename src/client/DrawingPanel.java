@@ -6,11 +6,24 @@ import javax.swing.event.DocumentListener;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.geom.*;
-import java.awt.image.BufferedImage;
 import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import remote.Action;
+import remote.Bounds;
+import remote.CanvasBuffer;
+import remote.Erasure;
+import remote.FrameStats;
 import remote.FullShape;
+import remote.Operation;
+import remote.PreviewOverlay;
+import remote.SceneLog;
+import remote.Settings;
+import remote.StrokeEraser;
+import remote.StrokeSimplifier;
+import remote.Styles;
+import remote.TiledCanvas;
 
 /**
  * This is the class for the drawing panel on the client.
@@ -19,28 +32,52 @@ import remote.FullShape;
  */
 public class DrawingPanel extends JPanel {
 	private static final long serialVersionUID = 1L;
+	// Trail left while dragging the stroke eraser
+	private static final Color ERASER_TRAIL = new Color(128, 128, 128, 96);
 	JFrame frame = null;
 	Action action = Action.FREEDRAW;
 	Color color = Color.BLACK;
 	BasicStroke size = new BasicStroke(1.0f);
-	private BufferedImage image;
+	private final TiledCanvas canvas = new TiledCanvas();
 	private Font font = new Font("Arial", Font.PLAIN, 5);
-	private ConcurrentHashMap<String, FullShape> previews = new ConcurrentHashMap<>();
+	private ConcurrentHashMap<String, PreviewOverlay> previews = new ConcurrentHashMap<>();
+	private final SceneLog scene = new SceneLog();
+	// Own shapes, text and deletes waiting to be handed back by the server, guarded by the scene
+	private final List<Operation> pending = new ArrayList<>();
+	// When the oldest of this client's own operations started waiting, or one last came back
+	private long pendingSince = 0;
+	private final CanvasBuffer buffer = new CanvasBuffer(Settings.RENDER_MODE);
+	private final FrameStats frameStats = new FrameStats(Settings.RENDER_MODE.toString().toLowerCase(), Settings.FRAME_STATS);
+	private final StrokeSimplifier simplifier = new StrokeSimplifier(Settings.SIMPLIFY_TOLERANCE, Settings.SMOOTH_STROKES, Settings.STROKE_STATS);
+	private ConcurrentHashMap<String, Long> strokes = new ConcurrentHashMap<>();
 
 	// Declare points
 	Point2D.Float pt1 = null;
 	Point2D.Float pt2 = null;
+	private Rectangle ownPreview = null;
+	
+	// Top left corner of the visible part of the canvas, and where a pan started
+	private final Point origin = new Point(0, 0);
+	private Point panStart = null;
 	Path2D.Double freedrawPath = null;
+	private long freedrawId = 0;
 
 	/**
-	 * Setter method for receiving image from server
-	 * @param image image to be shown
+	 * Getter method for the canvas currently shown
+	 * @return the canvas
 	 */
-	public void setImage(BufferedImage image) {
-		this.image = image;
-		Graphics2D g2 = image.createGraphics();
-		g2.dispose();
-	    repaint();
+	public TiledCanvas getCanvas() {
+		return canvas;
+	}
+	
+	/**
+	 * Setter method for receiving what is on the server's white board, which replaces the scene
+	 * @param contents background along with the shapes and text on it
+	 * @param sequence sequence number of the server's white board the contents were taken at
+	 */
+	public void setContents(SceneLog.Contents contents, long sequence) {
+		scene.restore(contents, sequence);
+		rebuild();
 	}
 	
 	/**
@@ -64,8 +101,8 @@ public class DrawingPanel extends JPanel {
 	 * @param size size of stroke to be set
 	 */
 	public void setSize(float size) {
-		this.size = new BasicStroke(size);
-		this.font = new Font("Arial", Font.PLAIN, (int) size * 5);
+		this.size = Styles.stroke(size);
+		this.font = Styles.font("Arial", Font.PLAIN, (int) size * 5);
 	}
 	
 	/**
@@ -75,16 +112,28 @@ public class DrawingPanel extends JPanel {
 	public DrawingPanel(JFrame Parent) {
 		frame = Parent;
 		
+		// Starts from a blank white board until the server syncs it
+		clearImage();
+		
 		// Handles all mouse actions
 		MouseAdapter mouseHandler = new MouseAdapter() {
 			@Override
 			public void mousePressed(MouseEvent e) {
-				if (action == Action.FREEDRAW || action == Action.ERASER) {
+				// Dragging with the right mouse button pans around the canvas instead of drawing
+				if (SwingUtilities.isRightMouseButton(e)) {
+					panStart = e.getPoint();
+					return;
+				}
+				if (action == Action.FREEDRAW || action == Action.ERASER || action == Action.STROKE_ERASER) {
 					freedrawPath = new Path2D.Double();
-					freedrawPath.moveTo(e.getX(), e.getY());
+					freedrawPath.moveTo(e.getX() + origin.x, e.getY() + origin.y);
 				}
-				pt1 = new Point2D.Float(e.getX(), e.getY());
+				pt1 = new Point2D.Float(e.getX() + origin.x, e.getY() + origin.y);
 				try {
+					// Start the stroke on other side so that only new points need to be sent while dragging
+					if (action == Action.FREEDRAW || action == Action.ERASER) {
+						freedrawId = ((ClientGUI) frame).getRemote().beginStrokeAll(action == Action.ERASER ? Color.WHITE : color, size.getLineWidth(), e.getX() + origin.x, e.getY() + origin.y);
+					}
 					// Inform everyone that the user is drawing
 					((ClientGUI) frame).getRemote().informAll(action);
 					((ClientGUI) frame).updateUserOperation(((ClientGUI) frame).getUsername(), action);
@@ -95,30 +144,33 @@ public class DrawingPanel extends JPanel {
 			
 			@Override
 			public void mouseReleased(MouseEvent e) {
-				Graphics2D g2 = image.createGraphics();
-
+				if (panStart != null) {
+					panStart = null;
+					return;
+				}
 				if (action == Action.FREEDRAW || action == Action.ERASER) {
+					// Thins out the stroke before it is sent and stored
+					freedrawPath = simplifier.simplify(freedrawPath, size.getLineWidth());
 					if (action == Action.FREEDRAW) {
 						try {
-							// Resets the preview on other side and sends the final confirmed shape
-							((ClientGUI) frame).getRemote().sendPreviewAll(null, null, 0, null, 0, 0, null);
-							((ClientGUI) frame).getRemote().sendShapeAll(freedrawPath, color, size.getLineWidth());
+							// Ends the stroke preview on other side and sends the final confirmed shape
+							((ClientGUI) frame).getRemote().endStrokeAll();
+							((ClientGUI) frame).getRemote().sendShapeAll(freedrawId, freedrawPath, color, size.getLineWidth());
 						} catch (RemoteException e1) {
 							JOptionPane.showMessageDialog(new JFrame(), e1, "Dialog", JOptionPane.ERROR_MESSAGE);
 						}
-						g2.setColor(color);
 					} else {
 						try {
-							// Resets the preview on the other side and sends the final confirmed shape
-							((ClientGUI) frame).getRemote().sendPreviewAll(null, null, 0, null, 0, 0, null);
-							((ClientGUI) frame).getRemote().sendShapeAll(freedrawPath, Color.WHITE, size.getLineWidth()); // color is white for an eraser
+							// Ends the stroke preview on the other side and sends the final confirmed shape
+							((ClientGUI) frame).getRemote().endStrokeAll();
+							((ClientGUI) frame).getRemote().sendShapeAll(freedrawId, freedrawPath, Color.WHITE, size.getLineWidth()); // color is white for an eraser
 						} catch (RemoteException e1) {
 							JOptionPane.showMessageDialog(new JFrame(), e1, "Dialog", JOptionPane.ERROR_MESSAGE);
 						}
-						g2.setColor(Color.WHITE);
 					}
-					g2.setStroke(size);
-					g2.draw(freedrawPath);
+					commitOwn(Operation.shape(((ClientGUI) frame).getUsername(), freedrawId, freedrawPath, action == Action.ERASER ? Color.WHITE : color, size.getLineWidth()));
+				} else if (action == Action.STROKE_ERASER) {
+					eraseStrokes();
 				} else if (action == Action.TEXT) {
 					// Spawns new text field at user's mouse position
 					JTextField textField = new JTextField();
@@ -134,8 +186,8 @@ public class DrawingPanel extends JPanel {
 			        textField.requestFocusInWindow();
 			        DrawingPanel.this.repaint();
 
-			        final int x = e.getX();
-			        final int y = e.getY();
+			        final int x = e.getX() + origin.x;
+			        final int y = e.getY() + origin.y;
 			        
 			        // Invoked when the user types or deletes anything in the text field
 			        textField.getDocument().addDocumentListener(new DocumentListener() {
@@ -166,19 +218,14 @@ public class DrawingPanel extends JPanel {
 			            @Override
 			            public void focusLost(FocusEvent fe) {
 			                String text = textField.getText();
-		                    Graphics2D g2 = image.createGraphics();
-		                    g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-		                    g2.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-		                    g2.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
-		                    g2.setColor(color);
-		                    g2.setFont(font);
-		                    g2.drawString(text, x, y + (int)(font.getSize() * 1.0));
+		                    long strokeId = ((ClientGUI) frame).getRemote().nextStrokeId();
+		                    commitOwn(Operation.text(((ClientGUI) frame).getUsername(), strokeId, text, x, y + (int)(font.getSize() * 1.0), color, font));
 
 		                    try {
 		                    	((ClientGUI) frame).getRemote().informAll(null);
 		                    	((ClientGUI) frame).updateUserOperation(((ClientGUI) frame).getUsername(), null);
 		                    	((ClientGUI) frame).getRemote().sendPreviewAll(null, null, 0, null, 0, 0, null);
-		                        ((ClientGUI) frame).getRemote().sendTextAll(text, x, y + (int)(font.getSize() * 1.0), color, font);
+		                        ((ClientGUI) frame).getRemote().sendTextAll(strokeId, text, x, y + (int)(font.getSize() * 1.0), color, font);
 		                    } catch (RemoteException ex) {
 		                        JOptionPane.showMessageDialog(new JFrame(), ex, "Dialog", JOptionPane.ERROR_MESSAGE);
 		                    }
@@ -189,26 +236,25 @@ public class DrawingPanel extends JPanel {
 			        });
 				} else {
 					// Register second point
-					pt2 = new Point2D.Float(e.getX(), e.getY());
+					pt2 = new Point2D.Float(e.getX() + origin.x, e.getY() + origin.y);
 					Shape shape = createShape(pt1, pt2);
-					g2.setStroke(size);
-			        g2.setColor(color);
-			        g2.draw(shape);
+					long strokeId = ((ClientGUI) frame).getRemote().nextStrokeId();
+					commitOwn(Operation.shape(((ClientGUI) frame).getUsername(), strokeId, shape, color, size.getLineWidth()));
 					try {
 						if (action == Action.ERASER) {
 							((ClientGUI) frame).getRemote().sendPreviewAll(null, null, 0, null, 0, 0, null);
-							((ClientGUI) frame).getRemote().sendShapeAll(shape, Color.WHITE, size.getLineWidth());
+							((ClientGUI) frame).getRemote().sendShapeAll(strokeId, shape, Color.WHITE, size.getLineWidth());
 						} else {
 							((ClientGUI) frame).getRemote().sendPreviewAll(null, null, 0, null, 0, 0, null);
-							((ClientGUI) frame).getRemote().sendShapeAll(shape, color, size.getLineWidth());
+							((ClientGUI) frame).getRemote().sendShapeAll(strokeId, shape, color, size.getLineWidth());
 						}
 					} catch (RemoteException e1) {
 						JOptionPane.showMessageDialog(new JFrame(), e1, "Dialog", JOptionPane.ERROR_MESSAGE);
 					}
 				}
 				
-				g2.dispose();
-				repaint();
+				repaintArea(ownPreview);
+				ownPreview = null;
 				
 				// Reset operation on other side
 				try {
@@ -225,18 +271,39 @@ public class DrawingPanel extends JPanel {
 			
 			@Override
 			public void mouseDragged(MouseEvent e) {
+				if (panStart != null) {
+					origin.translate(panStart.x - e.getX(), panStart.y - e.getY());
+					panStart = e.getPoint();
+					repaint();
+					return;
+				}
 				// Sets current pt2 for the preview
-				pt2 = new Point2D.Float(e.getX(), e.getY());
+				Point2D.Float last = pt2 != null ? pt2 : pt1;
+				pt2 = new Point2D.Float(e.getX() + origin.x, e.getY() + origin.y);
+				Rectangle dirty = null;
 		        try {
-		        	if (action == Action.ERASER) {
-		        		((ClientGUI) frame).getRemote().sendPreviewAll(createShape(pt1, pt2), Color.WHITE, size.getLineWidth(), null, 0, 0, null);
+		        	if (action == Action.FREEDRAW || action == Action.ERASER) {
+		        		// Others already have the rest of the stroke so only the new point is sent
+		        		createShape(pt1, pt2);
+		        		dirty = Bounds.of(last.x, last.y, pt2.x, pt2.y, size.getLineWidth());
+		        		((ClientGUI) frame).getRemote().appendPointAll(pt2.x, pt2.y);
+					} else if (action == Action.STROKE_ERASER) {
+						// The eraser's trail is only shown here, what it erases is sent once it is lifted
+						createShape(pt1, pt2);
+						dirty = Bounds.of(last.x, last.y, pt2.x, pt2.y, StrokeEraser.radius(size.getLineWidth()) * 2);
 					} else {
-						((ClientGUI) frame).getRemote().sendPreviewAll(createShape(pt1, pt2), color, size.getLineWidth(), null, 0, 0, null);
+						Shape preview = createShape(pt1, pt2);
+						if (preview != null) {
+							dirty = Bounds.of(preview, size.getLineWidth());
+						}
+						((ClientGUI) frame).getRemote().sendPreviewAll(preview, color, size.getLineWidth(), null, 0, 0, null);
 					}
 				} catch (RemoteException e1) {
 					JOptionPane.showMessageDialog(new JFrame(), e1, "Dialog", JOptionPane.ERROR_MESSAGE);
 				}
-			    repaint();
+		        // Only the area covered by the old and new preview needs repainting
+			    repaintArea(Bounds.union(ownPreview, dirty));
+			    ownPreview = dirty;
 			}
 		};
 		
@@ -275,6 +342,7 @@ public class DrawingPanel extends JPanel {
 				freedrawPath.lineTo(p2.x, p2.y);
                 return freedrawPath;
 			case FREEDRAW:
+			case STROKE_ERASER:
 				freedrawPath.lineTo(p2.x, p2.y);
                 return freedrawPath;
 			case TRIANGLE:
@@ -304,12 +372,82 @@ public class DrawingPanel extends JPanel {
 	 * @param font the font size of the shape
 	 */
 	public void drawPreview(String username, Shape shape, Color color, float size, String string, int x, int y, Font font) {
-		// Checks is previews currently contains a shape by the user, otherwise add it into previews list to render
-		previews.replace(username, new FullShape(shape, color, new BasicStroke(size), string, x, y, font));
-		if (!previews.containsKey(username)) {
-			previews.put(username, new FullShape(shape, color, new BasicStroke(size), string, x, y, font));
+		strokes.remove(username);
+		// Reuses the user's preview slot and repaints only the area covered by the old and new preview
+		PreviewOverlay overlay = previews.get(username);
+		if (overlay == null) {
+			overlay = new PreviewOverlay(new FullShape(shape, color, Styles.stroke(size), string, x, y, font));
+			previews.put(username, overlay);
+			repaintArea(Bounds.of(overlay.getPreview()));
+			return;
+		}
+		repaintArea(overlay.update(shape, color, Styles.stroke(size), string, x, y, font));
+	}
+	
+	/**
+	 * Starts previewing a freehand stroke drawn by another user
+	 * @param username user drawing the stroke
+	 * @param strokeId id of the stroke
+	 * @param color color being used
+	 * @param size size of stroke
+	 * @param x x coordinate of first point
+	 * @param y y coordinate of first point
+	 */
+	public void beginStroke(String username, long strokeId, Color color, float size, float x, float y) {
+		Path2D.Double path = new Path2D.Double();
+		path.moveTo(x, y);
+		strokes.put(username, strokeId);
+		PreviewOverlay overlay = previews.get(username);
+		Rectangle old = null;
+		if (overlay == null) {
+			previews.put(username, new PreviewOverlay(new FullShape(path, color, Styles.stroke(size), null, 0, 0, null)));
+		} else {
+			old = overlay.getBounds();
+			overlay.update(path, color, Styles.stroke(size), null, 0, 0, null);
+		}
+		repaintArea(Bounds.union(old, Bounds.of(x, y, x, y, size)));
+	}
+	
+	/**
+	 * Extends the previewed stroke of another user with the points drawn since the last update
+	 * @param username user drawing the stroke
+	 * @param strokeId id of the stroke
+	 * @param points new points as x and y coordinates one after the other
+	 */
+	public void appendPoints(String username, long strokeId, float[] points) {
+		PreviewOverlay overlay = previews.get(username);
+		Long current = strokes.get(username);
+		if (overlay == null || current == null || current != strokeId) {
+			return;
+		}
+		overlay.invalidate();
+		FullShape preview = overlay.getPreview();
+		Path2D path = (Path2D) preview.getShape();
+		// Only the new part of the stroke, starting from where it left off, needs repainting
+		Point2D start = path.getCurrentPoint();
+		double minX = start.getX(), minY = start.getY(), maxX = minX, maxY = minY;
+		for (int i = 0; i + 1 < points.length; i += 2) {
+			path.lineTo(points[i], points[i + 1]);
+			minX = Math.min(minX, points[i]);
+			minY = Math.min(minY, points[i + 1]);
+			maxX = Math.max(maxX, points[i]);
+			maxY = Math.max(maxY, points[i + 1]);
+		}
+		repaintArea(Bounds.of(minX, minY, maxX, maxY, preview.getStroke().getLineWidth()));
+	}
+	
+	/**
+	 * Removes the previewed stroke of another user once they have finished it
+	 * @param username user drawing the stroke
+	 * @param strokeId id of the stroke
+	 */
+	public void endStroke(String username, long strokeId) {
+		if (strokes.remove(username, strokeId)) {
+			PreviewOverlay overlay = previews.remove(username);
+			if (overlay != null) {
+				repaintArea(overlay.getBounds());
+			}
 		}
-		repaint();
 	}
 	
 	/**
@@ -317,61 +455,58 @@ public class DrawingPanel extends JPanel {
 	 */
 	@Override
     protected void paintComponent(Graphics g) {
+        long start = System.nanoTime();
         super.paintComponent(g);
         Graphics2D g2 = (Graphics2D) g;
         // To ensure smooth drawing
 	    g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
         g2.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
         g2.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
-        g2.drawImage(image, 0, 0, this);
+        synchronized (scene) {
+        	buffer.paint(g2, this, canvas, getViewport());
+        }
+        
+        // Previews are in canvas coordinates
+        g2.translate(-origin.x, -origin.y);
+        
+        // Own shapes and text not yet handed back by the server
+        synchronized (scene) {
+        	for (Operation operation : pending) {
+        		SceneLog.render(g2, operation);
+        	}
+        }
         
         // Preview of own's drawing
         if (pt1 != null && pt2 != null && action != Action.TEXT) {
             Shape preview = createShape(pt1, pt2);
-            if (preview != null) {
+            if (preview != null && action == Action.STROKE_ERASER) {
+                g2.setStroke(Styles.stroke(StrokeEraser.radius(size.getLineWidth()) * 2));
+                g2.setColor(ERASER_TRAIL);
+                g2.draw(preview);
+            } else if (preview != null) {
                 g2.setStroke(size);
                 g2.setColor(action == Action.ERASER ? Color.WHITE : color);
                 g2.draw(preview);
             }
         }
         
-        // Preview of other user's drawing
-        for (FullShape s : previews.values()) {
-        	// Drawing shapes
-        	if (s.getStroke() != null) g2.setStroke(s.getStroke());
-        	if (s.getColor() != null) g2.setColor(s.getColor());
-        	if (s.getShape() != null) g2.draw(s.getShape());
-        	
-        	// Drawing text
-        	if (s.getColor() != null) g2.setColor(s.getColor());
-        	if (s.getFont() != null) g2.setFont(s.getFont());
-        	if (s.getString() != null && s.getX() != 0 && s.getY() != 0) g2.drawString(s.getString(), s.getX(), s.getY());
+        // Preview of other user's drawing, each only drawn again when that user's preview changes
+        Rectangle clip = g2.getClipBounds();
+        for (PreviewOverlay overlay : previews.values()) {
+        	overlay.paint(g2, clip);
 		}
+        frameStats.record(System.nanoTime() - start);
     }
 	
-	/**
-	 * Draw a shape on the white board
-	 * @param shape shape to be drawn
-	 * @param color color used
-	 * @param size size of shape's stroke
-	 */
-	public void drawShape(Shape shape, Color color, float size) {
-		Graphics2D g2 = image.createGraphics();
-        g2.setColor(color);
-        g2.setStroke(new BasicStroke(size));
-        g2.draw(shape);
-        g2.dispose();
-		frame.repaint();
-	}
-	
 	/**
 	 * Clears white board when called on server side
 	 */
 	public void clearImage() {
-		Graphics2D g2 = image.createGraphics();
-	    g2.setColor(Color.WHITE);
-	    g2.fillRect(0, 0, image.getWidth(), image.getHeight());
-	    g2.dispose();
+		synchronized (scene) {
+			scene.clear();
+			canvas.clear();
+		    buffer.invalidate(null);
+		}
 		pt1 = null;
 		pt2 = null;
 		freedrawPath = null;
@@ -379,21 +514,158 @@ public class DrawingPanel extends JPanel {
 	}
 	
 	/**
-	 * Draws a text on the white board
-	 * @param text text to be drawn
-	 * @param x x coordinate of text
-	 * @param y y coordinate of text
-	 * @param color color used
-	 * @param font font's size of text
+	 * Takes whatever the stroke eraser passed over off the white board and tells everyone else
 	 */
-	public void drawText(String text, int x, int y, Color color, Font font) {
-		Graphics2D g2 = image.createGraphics();
-		g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        g2.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-        g2.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
-        g2.setColor(color);
-        g2.setFont(font);
-        g2.drawString(text, x, y);
-		frame.repaint();
+	private void eraseStrokes() {
+		List<Erasure> erasures = StrokeEraser.erase(scene, Erasure.points(freedrawPath), StrokeEraser.radius(size.getLineWidth()));
+		if (erasures.isEmpty()) {
+			return;
+		}
+		int pieces = 0;
+		for (Erasure erasure : erasures) {
+			pieces += erasure.getPieceCount();
+		}
+		long strokeId = ((ClientGUI) frame).getRemote().reserveStrokeIds(pieces);
+		commitOwn(Operation.delete(((ClientGUI) frame).getUsername(), strokeId, erasures));
+		try {
+			((ClientGUI) frame).getRemote().sendDeleteAll(strokeId, erasures);
+		} catch (RemoteException e) {
+			JOptionPane.showMessageDialog(new JFrame(), e, "Dialog", JOptionPane.ERROR_MESSAGE);
+		}
+	}
+	
+	/**
+	 * Adds a confirmed shape or text to the scene and draws it onto the raster kept for painting
+	 * @param operation operation to be committed
+	 */
+	public void commit(Operation operation) {
+		commitAll(List.of(operation));
+	}
+	
+	/**
+	 * Commits a shape, text or delete drawn by this client. When the server hands out everything in order
+	 * it is instead drawn on top of the white board until the server hands it back, so that it is committed
+	 * in the same place among everyone else's on every white board.
+	 * @param operation operation drawn by this client
+	 */
+	private void commitOwn(Operation operation) {
+		if (!((ClientGUI) frame).getRemote().isSequenced()) {
+			commit(operation);
+			return;
+		}
+		synchronized (scene) {
+			if (pending.isEmpty()) {
+				pendingSince = System.nanoTime();
+			}
+			pending.add(operation);
+		}
+		repaintArea(Bounds.of(operation));
+	}
+	
+	/**
+	 * Checks whether this client's own operations have been waiting too long to come back from the server.
+	 * Once it has said so it waits as long again before saying so again.
+	 * @param timeoutMillis how long they may wait
+	 * @return whether any of them has been waiting longer, with none coming back meanwhile
+	 */
+	public boolean isPendingStalled(long timeoutMillis) {
+		synchronized (scene) {
+			long now = System.nanoTime();
+			if (pending.isEmpty() || now - pendingSince < timeoutMillis * 1_000_000L) {
+				return false;
+			}
+			pendingSince = now;
+			return true;
+		}
+	}
+	
+	/**
+	 * Getter method for this client's own operations drawn on top until the server hands them back
+	 * @return a copy of the operations
+	 */
+	public List<Operation> getPending() {
+		synchronized (scene) {
+			return new ArrayList<>(pending);
+		}
+	}
+	
+	/**
+	 * Stops drawing some of this client's own operations on top, once they are known to be on the white board,
+	 * such as when an image taken after the server committed them has been received
+	 * @param operations operations to be dropped
+	 */
+	public void dropPending(List<Operation> operations) {
+		Rectangle bounds = null;
+		synchronized (scene) {
+			for (Operation operation : operations) {
+				if (pending.remove(operation)) {
+					bounds = Bounds.union(bounds, Bounds.of(operation));
+				}
+			}
+		}
+		repaintArea(bounds);
+	}
+	
+	/**
+	 * Adds confirmed shapes, text and deletes to the scene and draws them onto the raster kept for painting,
+	 * with a single repaint covering all of them. May be called off the event dispatch thread.
+	 * @param operations operations to be committed in order
+	 */
+	public void commitAll(List<Operation> operations) {
+		Rectangle bounds = null;
+		synchronized (scene) {
+			for (Operation operation : operations) {
+				scene.append(operation);
+				if (!pending.isEmpty() && pending.removeIf(own -> own.getStrokeId() == operation.getStrokeId() && own.getUsername().equals(operation.getUsername()))) {
+					pendingSince = System.nanoTime();
+				}
+				Rectangle area = scene.getArea(operation);
+				if (operation.getType() != Operation.Type.DELETE) {
+					canvas.render(operation);
+				} else if (area != null) {
+					// Whatever was under the erased shapes shows through again
+					scene.replay(canvas, area);
+				}
+				bounds = Bounds.union(bounds, area);
+			}
+			buffer.invalidate(bounds);
+		}
+		repaintArea(bounds);
+	}
+	
+	/**
+	 * Repaints only the given area of the white board
+	 * @param bounds area to be repainted in canvas coordinates, or null if nothing needs repainting
+	 */
+	private void repaintArea(Rectangle bounds) {
+		if (bounds != null) {
+			repaint(bounds.x - origin.x, bounds.y - origin.y, bounds.width, bounds.height);
+		}
+	}
+	
+	/**
+	 * @return area of the canvas visible in the panel
+	 */
+	private Rectangle getViewport() {
+		return new Rectangle(origin.x, origin.y, getWidth(), getHeight());
+	}
+	
+	/**
+	 * Redraws the canvas kept for painting by replaying the whole scene
+	 */
+	private void rebuild() {
+		synchronized (scene) {
+			scene.replay(canvas);
+			buffer.invalidate(null);
+		}
+		repaint();
+	}
+	
+	/**
+	 * Getter method for the scene drawn on this white board
+	 * @return the scene
+	 */
+	public SceneLog getScene() {
+		return scene;
 	}
-}
\ No newline at end of file
+}
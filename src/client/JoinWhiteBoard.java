@@ -1,6 +1,7 @@
 package client;
 
 import java.awt.EventQueue;
+import java.io.IOException;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.registry.*;
@@ -18,11 +19,13 @@ public class JoinWhiteBoard {
 	private static String serverAddress;
 	private static String username;
 	private static int port;
+	private static Transport transport = Transport.RMI;
+	private static Sockets sockets = Settings.SOCKETS;
 	
 	public static void main(String[] args) {
 		// Parse command line arguments
-        if (args.length != 3) {
-            System.out.println("EXPECTED: java JoinWhiteBoard <serverIPAddress> <serverPort> <username>");
+        if (args.length < 3 || args.length > 5) {
+            System.out.println("EXPECTED: java JoinWhiteBoard <serverIPAddress> <serverPort> <username> [rmi|nio] [default|tuned|compressed]");
             return;
         }
 
@@ -42,6 +45,26 @@ public class JoinWhiteBoard {
         
         username = args[2];
         
+        // Check valid transport
+        if (args.length >= 4) {
+            try {
+                transport = Transport.valueOf(args[3].toUpperCase());
+            } catch (IllegalArgumentException e) {
+                System.out.println("ERROR: Transport must be rmi or nio");
+                return;
+            }
+        }
+        
+        // Check valid sockets
+        if (args.length == 5) {
+            try {
+                sockets = Sockets.valueOf(args[4].toUpperCase());
+            } catch (IllegalArgumentException e) {
+                System.out.println("ERROR: Sockets must be default, tuned or compressed");
+                return;
+            }
+        }
+        
 		// Launch ClientGUI
         EventQueue.invokeLater(new Runnable() {
 			public void run() {
@@ -49,15 +72,16 @@ public class JoinWhiteBoard {
 					ClientGUI frame = new ClientGUI(username);
 					frame.setVisible(true);
 					
-					RemoteWhiteBoard remoteClient = new RemoteWhiteBoard(frame, username, frame.getDrawingPanel());
+					RemoteWhiteBoard remoteClient = new RemoteWhiteBoard(frame, username, frame.getDrawingPanel(), sockets);
 					frame.setRemote(remoteClient);
 					
 					// Check RMI registry
 					Registry registry = LocateRegistry.getRegistry(serverAddress, port);
 					IRemoteWhiteBoard remoteWhiteBoard = (IRemoteWhiteBoard) registry.lookup("WhiteBoard");
+					remoteClient.setHost(remoteWhiteBoard);
 					
 					// Connect to server
-					ConcurrentHashMap<String, IRemoteWhiteBoard> clients = remoteWhiteBoard.connect(username, (IRemoteWhiteBoard) remoteClient);
+					ConcurrentHashMap<String, IRemoteWhiteBoard> clients = remoteWhiteBoard.connect(username, (IRemoteWhiteBoard) remoteClient, remoteClient.getSyncedSequence());
 					if (clients == null) {
 						JOptionPane.showMessageDialog(new JFrame(), "Manager rejected join in request or username is already taken", "Dialog", JOptionPane.ERROR_MESSAGE);
 						System.exit(0);
@@ -69,7 +93,15 @@ public class JoinWhiteBoard {
 						frame.addUser(c.getKey());
 					}
 					remoteClient.setClients(clients);
-					remoteClient.setHost(remoteWhiteBoard);
+					
+					// Move drawing traffic over to the server's NIO transport, staying on RMI if it is not there
+					if (transport == Transport.NIO) {
+						try {
+							remoteClient.openNio(serverAddress, port + 1);
+						} catch (IOException e) {
+							JOptionPane.showMessageDialog(new JFrame(), e + ". Staying on RMI", "Dialog", JOptionPane.ERROR_MESSAGE);
+						}
+					}
 					
 					// Shutdown hook
 					Thread shutdownHook = new Thread(() -> {
@@ -0,0 +1,98 @@
+package client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+
+import remote.CompressionStats;
+import remote.FrameBuffer;
+import remote.FrameCodec;
+import remote.FrameCompressor;
+import remote.FramedPeer;
+import remote.IRemoteWhiteBoard;
+import remote.Settings;
+
+/**
+ * This client's connection to the server's NIO transport. Frames are written straight away by whichever
+ * thread sends them, and a thread of its own reads frames from the server and makes the calls they stand for.
+ * If compression is asked for, frames are sent compressed once the server has agreed to it.
+ * Should a frame from the server fail to be read or made sense of, the connection is closed.
+ *
+ * @author Si Yong Lim
+ */
+public class NioLink implements FramedPeer.Sink {
+	private final SocketChannel channel;
+	private final FrameBuffer buffer = new FrameBuffer();
+	private final FrameCompressor compressor;
+	private volatile boolean compressing = false;
+
+	/**
+	 * Connects to the server and says hello
+	 * @param address address of the server
+	 * @param port port the server's NIO transport listens on
+	 * @param username username of this client
+	 * @param token token the server handed this client over RMI
+	 * @param target session the server's calls are made on
+	 * @param host server's session, passed on as the reference of users who join
+	 * @param closed run once the connection is lost
+	 */
+	public NioLink(String address, int port, String username, byte[] token, IRemoteWhiteBoard target, IRemoteWhiteBoard host, Runnable closed) throws IOException {
+		channel = SocketChannel.open(new InetSocketAddress(address, port));
+		channel.socket().setTcpNoDelay(true);
+		compressor = Settings.COMPRESSION ? new FrameCompressor(new CompressionStats("to server", Settings.COMPRESSION_STATS)) : null;
+		send(FrameCodec.hello(username, token, compressor != null));
+		Thread reader = new Thread(() -> {
+			try {
+				while (buffer.read(channel, frame -> received(frame, target, host))) {
+					// Keeps reading until the server closes the connection
+				}
+			} catch (IOException | RuntimeException e) {
+				// Connection lost, or a frame that could not be made sense of
+			}
+			synchronized (this) {
+				try {
+					channel.close();
+				} catch (IOException e) {
+					// Already gone
+				}
+				if (compressor != null) {
+					compressor.end();
+				}
+			}
+			closed.run();
+		}, "whiteboard-nio");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/**
+	 * Handles a frame read, on the reader's thread
+	 */
+	private void received(byte[] frame, IRemoteWhiteBoard target, IRemoteWhiteBoard host) throws IOException {
+		if (compressor != null && FrameCodec.isDeflated(frame)) {
+			frame = compressor.inflate(frame);
+		} else if (compressor != null && FrameCodec.isCompressing(frame)) {
+			compressing = true;
+			return;
+		}
+		FrameCodec.dispatch(frame, target, host);
+	}
+
+	/**
+	 * Writes a frame, waiting until the socket has taken all of it
+	 * @param frame frame including its length
+	 */
+	@Override
+	public synchronized void send(byte[] frame) throws RemoteException {
+		if (!channel.isOpen()) {
+			throw new RemoteException("Connection to server is closed");
+		}
+		buffer.add(compressing ? compressor.compress(frame) : frame);
+		try {
+			buffer.write(channel);
+		} catch (IOException e) {
+			throw new RemoteException("Could not write to server", e);
+		}
+	}
+}
@@ -7,8 +7,8 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
-import javax.imageio.ImageIO;
 import javax.swing.*;
 import remote.*;
 import remote.Action;
@@ -24,18 +24,39 @@ public class RemoteWhiteBoard extends UnicastRemoteObject implements IRemoteWhit
     private final ClientGUI frame;
     private ConcurrentHashMap<String, IRemoteWhiteBoard> clients = new ConcurrentHashMap<>();
     private String host, username;
+    // Manager's session, which relays for every user it is handed out for
+    private IRemoteWhiteBoard hostSession;
+    private volatile Topology topology = Topology.MESH;
+    // Operations handed out by the server, released in the order it gave them
+    private final ReorderBuffer<Runnable> sequenced = new ReorderBuffer<>(Settings.REORDER_CAPACITY, Settings.REORDER_TIMEOUT_MILLIS, 0);
+    // Own operations still waiting to come back when the server was last asked to bring this client up to date
+    private List<Operation> awaitingResync = List.of();
     private DrawingPanel drawingPanel;
+    private final PeerDispatcher dispatcher = new PeerDispatcher(this::evict);
+    private volatile long syncedSequence = 0;
+    private final StrokeBuffer strokeBuffer = new StrokeBuffer(this::sendPointsAll);
+    private final Presence presence = new Presence(this::sendStatusAll, Settings.PRESENCE_DEBOUNCE_MILLIS);
+    // Starts from the clock so that ids stay unique for a user who leaves and joins again under the same name
+    private long strokeCount = System.currentTimeMillis();
+    private long currentStroke = 0;
+    private final RenderWorker renderWorker;
     
 	/**
 	 * Constructor to initialize white board
 	 * @param frame reference to client GUI frame
 	 * @param username username of client
 	 * @param drawingPanel drawing panel of client GUI
+	 * @param sockets sockets the white board is exported on
 	 */
-	public RemoteWhiteBoard(ClientGUI frame, String username, DrawingPanel drawingPanel) throws RemoteException {
+	public RemoteWhiteBoard(ClientGUI frame, String username, DrawingPanel drawingPanel, Sockets sockets) throws RemoteException {
+		super(0, TunedSocketFactory.of(sockets), TunedSocketFactory.of(sockets));
 		this.frame = frame;
 		this.username = username;
 		this.drawingPanel = drawingPanel;
+		dispatcher.addFrameListener(strokeBuffer::flush);
+		dispatcher.addFrameListener(presence::flush);
+		dispatcher.addFrameListener(this::checkSequenced);
+		renderWorker = new RenderWorker(drawingPanel::commitAll, this::apply, Settings.FRAME_RATE);
 	}
 
 	/**
@@ -54,24 +75,73 @@ public class RemoteWhiteBoard extends UnicastRemoteObject implements IRemoteWhit
 	 * @param message message to be sent
 	 */
 	public void sendMessage(String username, String message) throws RemoteException {
-		for (IRemoteWhiteBoard c : clients.values()) {
-			c.receiveMessage(username, message);
-		}
+		dispatcher.broadcast(c -> c.receiveMessage(username, message));
+	}
+
+	/**
+	 * @return username of this client
+	 */
+	@Override
+	public String getUsername() throws RemoteException {
+		return username;
+	}
+
+	/**
+	 * @return how users in the session reach each other, as learnt from the server
+	 */
+	@Override
+	public Topology getTopology() throws RemoteException {
+		return topology;
+	}
+	
+	/**
+	 * @return whether the server hands out every confirmed shape, text and delete in order,
+	 * including this client's own
+	 */
+	public boolean isSequenced() {
+		return topology == Topology.HUB;
 	}
 
 	/**
 	 * When someone else wants to connect to the active session
 	 * @param username username of new client connecting
-	 * @param client reference to client session
+	 * @param client reference to client session, or the manager's session if the manager relays for them
+	 * @param lastSequence not used since clients do not hand out white board state
 	 * @return returns a hash map of users mapped to their reference session
 	 */
 	@Override
-	public ConcurrentHashMap<String, IRemoteWhiteBoard> connect(String username, IRemoteWhiteBoard client) throws RemoteException {
+	public ConcurrentHashMap<String, IRemoteWhiteBoard> connect(String username, IRemoteWhiteBoard client, long lastSequence) throws RemoteException {
 		clients.put(username, client);
+		if (!client.equals(hostSession)) {
+			dispatcher.addPeer(username, client);
+			// In a mesh no one relays this client's status, so whoever joins is told it here
+			presence.sendTo(action -> dispatcher.send(username, c -> c.inform(this.username, action)));
+		}
 		SwingUtilities.invokeLater(() -> frame.addUser(username));
 		return new ConcurrentHashMap<>(clients);
 	}
 
+	/**
+	 * Clients do not hand out white board state
+	 * @param username 
+	 * @param lastSequence 
+	 */
+	@Override
+	public void resync(String username, long lastSequence) throws RemoteException {
+		return;
+	}
+
+	/**
+	 * Clients do not run the NIO transport
+	 * @param username 
+	 * @param client 
+	 * @return null
+	 */
+	@Override
+	public byte[] nioToken(String username, IRemoteWhiteBoard client) throws RemoteException {
+		return null;
+	}
+
 	/**
 	 * When other people want to disconnect
 	 * @param username username of person disconnecting
@@ -79,6 +149,7 @@ public class RemoteWhiteBoard extends UnicastRemoteObject implements IRemoteWhit
 	@Override
 	public void disconnect(String username) throws RemoteException {
 		clients.remove(username);
+		dispatcher.removePeer(username);
 		SwingUtilities.invokeLater(() -> {
 			if (username.equals(host)) {
 				JOptionPane.showMessageDialog(new JFrame(), "Manager has closed the whiteboard", "Dialog", JOptionPane.ERROR_MESSAGE);
@@ -98,43 +169,102 @@ public class RemoteWhiteBoard extends UnicastRemoteObject implements IRemoteWhit
 	 * @param username username of this client
 	 */
 	public void disconnectAll(String username) throws RemoteException {
-		for (IRemoteWhiteBoard c : clients.values()) {
-			c.disconnect(username);
-		}
+		dispatcher.broadcast(c -> c.disconnect(username));
+		dispatcher.close(Settings.CALL_TIMEOUT_MILLIS);
 		clients.clear();
 	}
+	
+	/**
+	 * Drops a peer that has fallen behind or keeps timing out
+	 * @param username username of peer evicted
+	 */
+	private void evict(String username) {
+		if (clients.remove(username) != null) {
+			SwingUtilities.invokeLater(() -> frame.removeUser(username));
+		}
+	}
 
 	/**
-	 * Sets client when server sends over current active users in session
+	 * Sets client when server sends over current active users in session.
+	 * Users handed out with the manager's session are reached through the manager, so only
+	 * the manager itself is given a channel for them
 	 * @param clients all map of clients from username to client reference
 	 */
 	public void setClients(ConcurrentHashMap<String, IRemoteWhiteBoard> clients) {
 		this.clients = clients;
+		for (var entry : clients.entrySet()) {
+			if (!entry.getValue().equals(hostSession) || entry.getKey().equals(host)) {
+				dispatcher.addPeer(entry.getKey(), entry.getValue());
+			}
+		}
 	}
 
 	/**
-	 * Remember which one is the server host
+	 * Remember which one is the server host, to be called before connecting
 	 * @param host the host session
 	 */
-	public void setHost(IRemoteWhiteBoard host) {
-		for (var entry : clients.entrySet()) {
-            if (entry.getValue().equals(host)) {
-                this.host = entry.getKey();
-                break; 
-            }
-        }
+	public void setHost(IRemoteWhiteBoard host) throws RemoteException {
+		this.host = host.getUsername();
+		this.hostSession = host;
+		this.topology = host.getTopology();
+	}
+	
+	/**
+	 * Moves traffic to and from the server over to its NIO transport, RMI having only been needed to join
+	 * @param address address of the server
+	 * @param port port the server's NIO transport listens on
+	 */
+	public void openNio(String address, int port) throws IOException {
+		if (!isSequenced()) {
+			throw new IOException("The NIO transport needs the manager to run as a hub");
+		}
+		byte[] token = hostSession.nioToken(username, this);
+		if (token == null) {
+			throw new IOException("The manager did not let this client use the NIO transport");
+		}
+		NioLink link = new NioLink(address, port, username, token, this, hostSession, this::closedNio);
+		dispatcher.addPeer(host, new FramedPeer(host, link));
 	}
 	
 	/**
-	 * Informs everyone in the active session of this client's action
+	 * Goes back to RMI once the connection to the server's NIO transport is lost, unless the manager has gone,
+	 * asking for anything handed out that may have been lost with the connection
+	 */
+	private void closedNio() {
+		try {
+			hostSession.getUsername();
+		} catch (RemoteException e) {
+			try {
+				disconnect(host);
+			} catch (RemoteException notRemote) {
+				// Not remote
+			}
+			return;
+		}
+		dispatcher.addPeer(host, hostSession);
+		resync();
+	}
+	
+	/**
+	 * Informs everyone in the active session of this client's action once it has settled,
+	 * or along with the next thing sent
 	 * @param operation operation executed
 	 */
 	public void informAll(Action operation) throws RemoteException {
-		for (IRemoteWhiteBoard c : clients.values()) {
-			c.inform(username, operation);
+		presence.set(operation);
+		if (!dispatcher.isCoalescing()) {
+			presence.flushNow();
 		}
 	}
 	
+	/**
+	 * Sends a change of this client's action to everyone in active session
+	 * @param action action now being done, or null if idle
+	 */
+	private void sendStatusAll(Action action) {
+		dispatcher.broadcast(c -> c.inform(username, action));
+	}
+	
 	/**
 	 * Called when others want to inform this client of their operation
 	 * @param username user executing the action
@@ -146,93 +276,100 @@ public class RemoteWhiteBoard extends UnicastRemoteObject implements IRemoteWhit
 	}
 
 	/**
-	 * Called when others want to draw a shape on this client's window
-	 * @param shape shape to be drawn
+	 * Sends shape drawn by this client to everyone in active session
+	 * @param strokeId id of the shape, see {@link #nextStrokeId()}
+	 * @param shape shape to be sent
 	 * @param color color used
 	 * @param size shape's stroke size
 	 */
-	@Override
-	public void drawShape(Shape shape, Color color, float size) throws RemoteException {
-		SwingUtilities.invokeLater(() -> drawingPanel.drawShape(shape, color, size));
-    }
+	public void sendShapeAll(long strokeId, Shape shape, Color  color, float size) throws RemoteException {
+		broadcast(Operation.shape(username, strokeId, shape, color, size));
+	}
 
 	/**
-	 * Sends shape drawn by this client to everyone in active session
-	 * @param shape shape to be sent
-	 * @param color color used
-	 * @param size shape's stroke size
+	 * Sends shapes and text erased by this client to everyone in active session
+	 * @param strokeId id given to the first piece of any stroke split, see {@link #reserveStrokeIds(int)}
+	 * @param erasures shapes and text erased
 	 */
-	public void sendShapeAll(Shape shape, Color  color, float size) throws RemoteException {
-		for (IRemoteWhiteBoard c : clients.values()) {
-			c.drawShape(shape, color, size);
-		}
+	public void sendDeleteAll(long strokeId, List<Erasure> erasures) throws RemoteException {
+		broadcast(Operation.delete(username, strokeId, erasures));
 	}
 
 	/**
 	 * Called when user wants to send the existing state of the white board
-	 * @param imageBytes an image converted into a stream of bytes 
+	 * @param imageBytes the background and the shapes and text on it, written by SceneLog.Contents
+	 * @param sequence sequence number of the last operation included in the image
 	 */
 	@Override
-	public void sendImage(byte[] imageBytes) throws RemoteException {
-		SwingUtilities.invokeLater(() -> {
-            try (ByteArrayInputStream bais = new ByteArrayInputStream(imageBytes)) {
-                drawingPanel.setImage(ImageIO.read(bais));
-            } catch (IOException e) {
-            	JOptionPane.showMessageDialog(new JFrame(), e, "Dialog", JOptionPane.ERROR_MESSAGE);
-            }
-        });
+	public void sendImage(byte[] imageBytes, long sequence) throws RemoteException {
+		synchronized (sequenced) {
+			syncedSequence = sequence;
+			List<Operation> covered = awaitingResync;
+			awaitingResync = List.of();
+			renderWorker.execute(() -> {
+	            try {
+	                drawingPanel.setContents(SceneLog.Contents.read(new ByteArrayInputStream(imageBytes)), sequence);
+	            } catch (IOException e) {
+	            	JOptionPane.showMessageDialog(new JFrame(), e, "Dialog", JOptionPane.ERROR_MESSAGE);
+	            }
+	            drawingPanel.dropPending(covered);
+	        });
+			release(sequenced.reset(sequence));
+		}
 	}
-
+	
 	/**
-	 * Sends the text from this client to everyone in active session
-	 * @param text text to be sent
-	 * @param x x coordinate of text
-	 * @param y y coordinate of text
-	 * @param color color used
-	 * @param font font's stroke size
+	 * Called when the server brings this client up to date with only the operations it is missing
+	 * @param operations the missing operations encoded by OperationCodec
+	 * @param sequence sequence number of the last operation sent
 	 */
-	public void sendTextAll(String text, int x, int y, Color color, Font font) throws RemoteException {
-		for (IRemoteWhiteBoard c : clients.values()) {
-			c.drawText(text, x, y, color, font);
+	@Override
+	public void sendOperations(byte[] operations, long sequence) throws RemoteException {
+		synchronized (sequenced) {
+			syncedSequence = sequence;
+			List<Operation> covered = awaitingResync;
+			awaitingResync = List.of();
+			renderWorker.submitAll(OperationCodec.decodeAll(operations));
+			if (!covered.isEmpty()) {
+				renderWorker.execute(() -> drawingPanel.dropPending(covered));
+			}
+			release(sequenced.reset(sequence));
 		}
 	}
-
+	
 	/**
-	 * Called when server wants to clear image on user's side
+	 * Getter method for the sequence number of the server's white board this client was last synced to
+	 * @return the sequence number, 0 if never synced
 	 */
-	@Override
-	public void clearImage() throws RemoteException {
-		SwingUtilities.invokeLater(() -> drawingPanel.clearImage());
+	public long getSyncedSequence() {
+		return syncedSequence;
 	}
 
 	/**
-	 * Called when others want to draw text on client side
-	 * @param string string to be rendered
+	 * Sends the text from this client to everyone in active session
+	 * @param strokeId id of the text, see {@link #nextStrokeId()}
+	 * @param text text to be sent
 	 * @param x x coordinate of text
 	 * @param y y coordinate of text
 	 * @param color color used
 	 * @param font font's stroke size
 	 */
-	@Override
-	public void drawText(String string, int x, int y, Color color, Font font) throws RemoteException {
-		SwingUtilities.invokeLater(() -> drawingPanel.drawText(string, x, y, color, font));
-    }
+	public void sendTextAll(long strokeId, String text, int x, int y, Color color, Font font) throws RemoteException {
+		broadcast(Operation.text(username, strokeId, text, x, y, color, font));
+	}
 
 	/**
-	 * Called when others want to send a preview to be rendered on this client
-	 * @param username user sending the preview
-	 * @param shape shape to be drawn
-	 * @param color color used
-	 * @param size shape's stroke size
-	 * @param string string to be rendered
-	 * @param x x coordinate of text
-	 * @param y y coordinate of text
-	 * @param font font's stroke size
+	 * Called when server wants to clear image on user's side
+	 * @param sequence sequence number the clear took up on the server's white board
 	 */
 	@Override
-	public void updatePreview(String username, Shape shape, Color color, float size, String string, int x, int y, Font font) throws RemoteException {
-		SwingUtilities.invokeLater(() -> drawingPanel.drawPreview(username, shape, color, size, string, x, y, font));
-    }
+	public void clearImage(long sequence) throws RemoteException {
+		if (isSequenced()) {
+			deliver(sequence, () -> renderWorker.execute(() -> drawingPanel.clearImage()));
+		} else {
+			renderWorker.execute(() -> drawingPanel.clearImage());
+		}
+	}
 	
 	/**
 	 * Sends preview from this client to everyone in active session
@@ -245,8 +382,191 @@ public class RemoteWhiteBoard extends UnicastRemoteObject implements IRemoteWhit
 	 * @param font font's stroke size
 	 */
 	public void sendPreviewAll(Shape shape, Color color, float size, String string, int x, int y, Font font) throws RemoteException {
-		for (IRemoteWhiteBoard c : clients.values()) {
-			c.updatePreview(username, shape, color, size, string, x, y, font);
-		}		
+		byte[] operation = OperationCodec.encode(Operation.preview(username, shape, color, size, string, x, y, font));
+		dispatcher.broadcastPreview(username, c -> c.applyOperation(operation));
+	}
+	
+	/**
+	 * Starts a freehand stroke drawn by this client on everyone in active session
+	 * @param color color used
+	 * @param size stroke size
+	 * @param x x coordinate of first point
+	 * @param y y coordinate of first point
+	 * @return id of the stroke, to be given to the confirmed shape once it is finished
+	 */
+	public long beginStrokeAll(Color color, float size, float x, float y) throws RemoteException {
+		long strokeId = nextStrokeId();
+		currentStroke = strokeId;
+		strokeBuffer.begin(strokeId);
+		broadcast(Operation.beginStroke(username, strokeId, color, size, x, y));
+		return strokeId;
+	}
+	
+	/**
+	 * Gives out an id for a shape or text drawn by this client
+	 * @return the id, unique for this user
+	 */
+	public long nextStrokeId() {
+		return reserveStrokeIds(1);
+	}
+	
+	/**
+	 * Gives out consecutive ids for shapes drawn by this client
+	 * @param count number of ids needed
+	 * @return the first of the ids
+	 */
+	public synchronized long reserveStrokeIds(int count) {
+		long first = strokeCount + 1;
+		strokeCount += count;
+		return first;
+	}
+	
+	/**
+	 * Adds a point to the stroke being drawn by this client. Points are sent in batches once per frame
+	 * @param x x coordinate of point
+	 * @param y y coordinate of point
+	 */
+	public void appendPointAll(float x, float y) throws RemoteException {
+		strokeBuffer.add(x, y);
+		if (!dispatcher.isCoalescing()) {
+			strokeBuffer.flush();
+		}
+	}
+	
+	/**
+	 * Sends the remaining points of the stroke being drawn by this client and ends it on everyone in active session
+	 */
+	public void endStrokeAll() throws RemoteException {
+		strokeBuffer.flush();
+		broadcast(Operation.endStroke(username, currentStroke));
+	}
+	
+	/**
+	 * Sends the points added to a stroke since the last flush to everyone in active session
+	 * @param strokeId id of the stroke
+	 * @param points new points as x and y coordinates one after the other
+	 */
+	private void sendPointsAll(long strokeId, float[] points) {
+		broadcast(Operation.appendPoints(username, strokeId, points));
+	}
+	
+	/**
+	 * Encodes an operation once and sends the same bytes to everyone in active session
+	 * @param operation operation to be sent
+	 */
+	private void broadcast(Operation operation) {
+		// A change of status still held back goes out just ahead of it, in the same batch
+		presence.flushNow();
+		byte[] encoded = OperationCodec.encode(operation);
+		dispatcher.broadcast(c -> c.applyOperation(encoded));
+	}
+	
+	/**
+	 * Called when others want to apply a drawing operation on this client
+	 * @param operation operation encoded by OperationCodec
+	 */
+	@Override
+	public void applyOperation(byte[] operation) throws RemoteException {
+		renderWorker.submit(OperationCodec.decode(operation));
+	}
+	
+	/**
+	 * Applies a decoded preview or stroke update to the drawing panel on the event dispatch thread,
+	 * confirmed shapes and text having been drawn already by the render worker
+	 * @param op operation to be applied
+	 */
+	private void apply(Operation op) {
+		switch (op.getType()) {
+			case PREVIEW:
+				drawingPanel.drawPreview(op.getUsername(), op.getShape(), op.getColor(), op.getSize(), op.getString(), op.getX(), op.getY(), op.getFont());
+				break;
+			case STROKE_BEGIN:
+				drawingPanel.beginStroke(op.getUsername(), op.getStrokeId(), op.getColor(), op.getSize(), op.getPoints()[0], op.getPoints()[1]);
+				break;
+			case STROKE_APPEND:
+				drawingPanel.appendPoints(op.getUsername(), op.getStrokeId(), op.getPoints());
+				break;
+			case STROKE_END:
+				drawingPanel.endStroke(op.getUsername(), op.getStrokeId());
+				break;
+			default:
+				// Confirmed shapes and text are drawn by the render worker
+				break;
+		}
+	}
+	
+	/**
+	 * Called when the server hands out a confirmed shape, text or delete, which is held back
+	 * until everything handed out before it has been applied
+	 * @param operation operation encoded by OperationCodec
+	 * @param sequence sequence number of the operation on the server's white board
+	 */
+	@Override
+	public void applySequenced(byte[] operation, long sequence) throws RemoteException {
+		Operation op = OperationCodec.decode(operation);
+		deliver(sequence, () -> renderWorker.submit(op));
+	}
+	
+	/**
+	 * Called when someone sends several calls at once, which are made in order
+	 * @param calls the calls encoded as frames by FrameCodec
+	 */
+	@Override
+	public void applyBatch(byte[] calls) throws RemoteException {
+		FrameCodec.dispatchAll(calls, this, hostSession);
+	}
+	
+	/**
+	 * Applies something handed out by the server once its turn comes
+	 * @param sequence sequence number it was handed out with
+	 * @param task queues it to be applied
+	 */
+	private void deliver(long sequence, Runnable task) {
+		synchronized (sequenced) {
+			release(sequenced.offer(sequence, task));
+		}
+		checkSequenced();
+	}
+	
+	/**
+	 * Asks the server to bring this client up to date again when something it handed out has gone missing,
+	 * either because the operations held back have been waiting too long for one before them or
+	 * because this client's own have not come back. Called once per frame and whenever something is handed out.
+	 */
+	private void checkSequenced() {
+		if (!isSequenced() || host == null) {
+			return;
+		}
+		synchronized (sequenced) {
+			boolean stalled = sequenced.isStalled();
+			if (!drawingPanel.isPendingStalled(Settings.REORDER_TIMEOUT_MILLIS) && !stalled) {
+				return;
+			}
+		}
+		resync();
+	}
+	
+	/**
+	 * Asks the server for everything after the last operation applied from it
+	 */
+	private void resync() {
+		long last;
+		synchronized (sequenced) {
+			// Everything drawn by this client so far reaches the server before the call asking for the resync
+			awaitingResync = drawingPanel.getPending();
+			last = sequenced.getLast();
+		}
+		dispatcher.send(host, c -> c.resync(username, last));
+	}
+	
+	/**
+	 * Queues whatever the reorder buffer let go of, in order
+	 * @param tasks tasks released
+	 */
+	private void release(List<Runnable> tasks) {
+		for (Runnable task : tasks) {
+			task.run();
+		}
+		syncedSequence = Math.max(syncedSequence, sequenced.getLast());
 	}
 }
@@ -2,10 +2,11 @@ package remote;
 
 /**
  * Action enumeration shared between client and server
- * Contains all valid actions performed on white board
+ * Contains all valid actions performed on white board.
+ * New actions go at the end since shapes are tagged on the wire with the ordinal of the action that drew them.
  *
  * @author Si Yong Lim
  */
 public enum Action {
-	LINE, TRIANGLE, CIRCLE, RECTANGLE, FREEDRAW, ERASER, TEXT
+	LINE, TRIANGLE, CIRCLE, RECTANGLE, FREEDRAW, ERASER, TEXT, STROKE_ERASER
 }
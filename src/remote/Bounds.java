@@ -0,0 +1,131 @@
+package remote;
+
+import java.awt.Font;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.font.FontRenderContext;
+import java.awt.geom.Rectangle2D;
+
+/**
+ * Works out the area of the white board touched when drawing something,
+ * so that only that area needs to be repainted.
+ *
+ * @author Si Yong Lim
+ */
+@SuppressWarnings("exports")
+public final class Bounds {
+	// Strokes use mitered joins, which can stick out by up to half the miter limit times the width
+	private static final float MITER_REACH = 5.0f;
+	// Extra room for antialiasing
+	private static final int MARGIN = 2;
+	private static final FontRenderContext FONT_CONTEXT = new FontRenderContext(null, true, true);
+
+	private Bounds() {
+	}
+
+	/**
+	 * @param shape shape being stroked
+	 * @param width width of stroke
+	 * @return area touched when stroking the shape
+	 */
+	public static Rectangle of(Shape shape, float width) {
+		return grow(shape.getBounds2D(), width);
+	}
+
+	/**
+	 * @param x1 x coordinate of start of segment
+	 * @param y1 y coordinate of start of segment
+	 * @param x2 x coordinate of end of segment
+	 * @param y2 y coordinate of end of segment
+	 * @param width width of stroke
+	 * @return area touched when stroking a straight segment, including the join with the one before it
+	 */
+	public static Rectangle of(double x1, double y1, double x2, double y2, float width) {
+		Rectangle2D.Double segment = new Rectangle2D.Double(Math.min(x1, x2), Math.min(y1, y2), Math.abs(x2 - x1), Math.abs(y2 - y1));
+		return grow(segment, width);
+	}
+
+	/**
+	 * @param string string being drawn
+	 * @param x x coordinate of text
+	 * @param y y coordinate of baseline of text
+	 * @param font font used
+	 * @return area touched when drawing the text
+	 */
+	public static Rectangle of(String string, int x, int y, Font font) {
+		Rectangle bounds = font.getStringBounds(string, FONT_CONTEXT).getBounds();
+		bounds.translate(x, y);
+		bounds.grow(MARGIN, MARGIN);
+		return bounds;
+	}
+
+	/**
+	 * @param operation shape or text committed to the white board
+	 * @return area touched when drawing it, or null if it draws nothing
+	 */
+	public static Rectangle of(Operation operation) {
+		if (operation.getShape() != null) {
+			return of(operation.getShape(), operation.getSize());
+		}
+		if (operation.getString() != null && operation.getFont() != null) {
+			return of(operation.getString(), operation.getX(), operation.getY(), operation.getFont());
+		}
+		return null;
+	}
+
+	/**
+	 * @param shape preview of shape or text
+	 * @return area touched when drawing it, or null if it draws nothing
+	 */
+	public static Rectangle of(FullShape shape) {
+		Rectangle bounds = null;
+		if (shape.getShape() != null) {
+			bounds = of(shape.getShape(), shape.getStroke() != null ? shape.getStroke().getLineWidth() : 1.0f);
+		}
+		if (shape.getString() != null && shape.getFont() != null) {
+			bounds = union(bounds, of(shape.getString(), shape.getX(), shape.getY(), shape.getFont()));
+		}
+		return bounds;
+	}
+
+	/**
+	 * Widens an area to cover a preview as well, changing the rectangle given rather than making a new one
+	 * @param area area to be widened, with a negative width if it covers nothing yet
+	 * @param shape preview of shape or text
+	 * @return the area given
+	 */
+	public static Rectangle add(Rectangle area, FullShape shape) {
+		if (shape.getShape() != null) {
+			Rectangle2D bounds = shape.getShape().getBounds2D();
+			int pad = (int) Math.ceil((shape.getStroke() != null ? shape.getStroke().getLineWidth() : 1.0f) * MITER_REACH) + MARGIN;
+			area.add((int) Math.floor(bounds.getMinX()) - pad, (int) Math.floor(bounds.getMinY()) - pad);
+			area.add((int) Math.ceil(bounds.getMaxX()) + pad, (int) Math.ceil(bounds.getMaxY()) + pad);
+		}
+		if (shape.getString() != null && shape.getFont() != null) {
+			area.add(of(shape.getString(), shape.getX(), shape.getY(), shape.getFont()));
+		}
+		return area;
+	}
+
+	/**
+	 * @param a first area, may be null
+	 * @param b second area, may be null
+	 * @return the smallest area covering both, or null if neither is given
+	 */
+	public static Rectangle union(Rectangle a, Rectangle b) {
+		if (a == null) {
+			return b;
+		}
+		if (b == null) {
+			return a;
+		}
+		return a.union(b);
+	}
+
+	private static Rectangle grow(Rectangle2D bounds, float width) {
+		Rectangle rectangle = bounds.getBounds();
+		int pad = (int) Math.ceil(width * MITER_REACH) + MARGIN;
+		rectangle.grow(pad, pad);
+		return rectangle;
+	}
+}
@@ -0,0 +1,114 @@
+package remote;
+
+import java.awt.Component;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.image.VolatileImage;
+
+/**
+ * Copy of the visible part of the committed white board kept in an image suited to the screen, so that
+ * painting a frame is a fast blit rather than a copy out of the canvas tiles. The canvas stays the master
+ * copy: only the parts of it that change are copied across, and the whole view whenever the copy is lost
+ * or the view moves.
+ *
+ * @author Si Yong Lim
+ */
+@SuppressWarnings("exports")
+public class CanvasBuffer {
+	private final RenderMode mode;
+	private Image buffer = null;
+	private Rectangle view = null;
+	private Rectangle dirty = null;
+	private boolean dirtyAll = true;
+
+	/**
+	 * @param mode where the copy is kept
+	 */
+	public CanvasBuffer(RenderMode mode) {
+		this.mode = mode;
+	}
+
+	/**
+	 * Marks part of the canvas as changed so that it is copied across before the next frame
+	 * @param area area changed in canvas coordinates, or null if all of it has changed
+	 */
+	public void invalidate(Rectangle area) {
+		if (area == null) {
+			dirtyAll = true;
+		} else if (!dirtyAll) {
+			dirty = Bounds.union(dirty, area);
+		}
+	}
+
+	/**
+	 * Paints the visible part of the canvas through the copy
+	 * @param g2 graphics to paint on
+	 * @param component component being painted
+	 * @param canvas master copy of the white board
+	 * @param viewport area of the canvas shown by the component
+	 */
+	public void paint(Graphics2D g2, Component component, TiledCanvas canvas, Rectangle viewport) {
+		GraphicsConfiguration gc = component.getGraphicsConfiguration();
+		if (mode == RenderMode.SOFTWARE || gc == null) {
+			Rectangle clip = g2.getClipBounds();
+			Rectangle area = clip != null ? new Rectangle(clip.x + viewport.x, clip.y + viewport.y, clip.width, clip.height) : viewport;
+			Graphics2D g = (Graphics2D) g2.create();
+			g.translate(-viewport.x, -viewport.y);
+			canvas.paint(g, area);
+			g.dispose();
+			return;
+		}
+		if (!viewport.equals(view)) {
+			view = new Rectangle(viewport);
+			dirtyAll = true;
+		}
+		int width = Math.max(1, viewport.width);
+		int height = Math.max(1, viewport.height);
+		if (mode == RenderMode.COMPATIBLE) {
+			if (buffer == null || buffer.getWidth(null) != width || buffer.getHeight(null) != height) {
+				buffer = gc.createCompatibleImage(width, height, Transparency.OPAQUE);
+				dirtyAll = true;
+			}
+			update(buffer, canvas);
+			g2.drawImage(buffer, 0, 0, component);
+			return;
+		}
+		VolatileImage image;
+		do {
+			image = buffer instanceof VolatileImage ? (VolatileImage) buffer : null;
+			int status = image == null ? VolatileImage.IMAGE_INCOMPATIBLE : image.validate(gc);
+			if (status == VolatileImage.IMAGE_INCOMPATIBLE || image.getWidth() != width || image.getHeight() != height) {
+				if (image != null) {
+					image.flush();
+				}
+				image = gc.createCompatibleVolatileImage(width, height, Transparency.OPAQUE);
+				buffer = image;
+				dirtyAll = true;
+			} else if (status == VolatileImage.IMAGE_RESTORED) {
+				dirtyAll = true;
+			}
+			update(image, canvas);
+			g2.drawImage(image, 0, 0, component);
+		} while (image.contentsLost());
+	}
+
+	/**
+	 * Copies whatever has changed in the visible part of the canvas across to the copy
+	 */
+	private void update(Image target, TiledCanvas canvas) {
+		Rectangle area = dirtyAll ? view : (dirty != null ? dirty.intersection(view) : null);
+		dirtyAll = false;
+		dirty = null;
+		if (area == null || area.isEmpty()) {
+			return;
+		}
+		Graphics2D g2 = (Graphics2D) target.getGraphics();
+		g2.translate(-view.x, -view.y);
+		g2.clip(area);
+		canvas.paint(g2, area);
+		g2.dispose();
+	}
+}
@@ -0,0 +1,88 @@
+package remote;
+
+/**
+ * Keeps count of how much compressing a connection's frames saves and how long it takes, so that
+ * compression can be weighed against the speed of the link. When enabled, a summary is printed every so many frames.
+ *
+ * @author Si Yong Lim
+ */
+public class CompressionStats {
+	// Number of frames compressed summarised in each report
+	private static final int REPORT_FRAMES = 500;
+
+	private final String name;
+	private final boolean report;
+	private long frames = 0;
+	private long rawBytes = 0;
+	private long compressedBytes = 0;
+	private long deflateNanos = 0;
+	private long inflatedFrames = 0;
+	private long inflateNanos = 0;
+
+	/**
+	 * @param name connection being measured, shown in reports
+	 * @param report whether to print a summary every so many frames
+	 */
+	public CompressionStats(String name, boolean report) {
+		this.name = name;
+		this.report = report;
+	}
+
+	/**
+	 * Records a frame compressed
+	 * @param raw length of the frame
+	 * @param compressed length of the frame once compressed
+	 * @param nanos time taken in nanoseconds
+	 */
+	public synchronized void deflated(int raw, int compressed, long nanos) {
+		frames++;
+		rawBytes += raw;
+		compressedBytes += compressed;
+		deflateNanos += nanos;
+		if (report && frames % REPORT_FRAMES == 0) {
+			System.out.println(this);
+			frames = 0;
+			rawBytes = 0;
+			compressedBytes = 0;
+			deflateNanos = 0;
+			inflatedFrames = 0;
+			inflateNanos = 0;
+		}
+	}
+
+	/**
+	 * Records a frame received compressed
+	 * @param nanos time taken to inflate it in nanoseconds
+	 */
+	public synchronized void inflated(long nanos) {
+		inflatedFrames++;
+		inflateNanos += nanos;
+	}
+
+	/**
+	 * @return length of frames sent once compressed as a fraction of their length before, since the last report
+	 */
+	public synchronized double getRatio() {
+		return rawBytes == 0 ? 1 : (double) compressedBytes / rawBytes;
+	}
+
+	/**
+	 * @return average time taken to compress a frame in milliseconds since the last report
+	 */
+	public synchronized double getDeflateMillis() {
+		return frames == 0 ? 0 : deflateNanos / 1e6 / frames;
+	}
+
+	/**
+	 * @return average time taken to inflate a frame received in milliseconds since the last report
+	 */
+	public synchronized double getInflateMillis() {
+		return inflatedFrames == 0 ? 0 : inflateNanos / 1e6 / inflatedFrames;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("Compression (%s): %d bytes in %d frames sent as %d (%.1f%%), deflate %.3f ms, inflate %.3f ms over %d frames received",
+				name, rawBytes, frames, compressedBytes, getRatio() * 100, getDeflateMillis(), getInflateMillis(), inflatedFrames);
+	}
+}
@@ -0,0 +1,123 @@
+package remote;
+
+import java.awt.Shape;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Part of a delete operation naming one confirmed shape or text to be taken off the white board.
+ * A freehand stroke that is only partly erased is split: the runs of its points left untouched
+ * are given as ranges so that everyone can rebuild the same pieces without them being sent.
+ *
+ * @author Si Yong Lim
+ */
+@SuppressWarnings("exports")
+public class Erasure {
+	private static final int[] NONE = new int[0];
+
+	private final String username;
+	private final long strokeId;
+	private final int[] ranges;
+
+	/**
+	 * @param username user who drew the shape or text
+	 * @param strokeId id of the shape or text, unique for the user
+	 * @param ranges first and one past the last index of each run of points kept, one pair after the other,
+	 * or an empty array if nothing is kept
+	 */
+	public Erasure(String username, long strokeId, int[] ranges) {
+		this.username = username;
+		this.strokeId = strokeId;
+		this.ranges = ranges;
+	}
+
+	/**
+	 * Erases a shape or text whole
+	 * @param target shape or text to be erased
+	 * @return the erasure
+	 */
+	public static Erasure whole(Operation target) {
+		return new Erasure(target.getUsername(), target.getStrokeId(), NONE);
+	}
+
+	/**
+	 * @return the user who drew the shape or text
+	 */
+	public String getUsername() {
+		return username;
+	}
+
+	/**
+	 * @return the id of the shape or text
+	 */
+	public long getStrokeId() {
+		return strokeId;
+	}
+
+	/**
+	 * @return first and one past the last index of each run of points kept, one pair after the other
+	 */
+	public int[] getRanges() {
+		return ranges;
+	}
+
+	/**
+	 * @return number of pieces the shape is split into
+	 */
+	public int getPieceCount() {
+		return ranges.length / 2;
+	}
+
+	/**
+	 * Rebuilds the pieces of a freehand stroke left after erasing
+	 * @param target the stroke erased
+	 * @return the shape of each piece in order, with null for any range that does not fit the stroke
+	 */
+	public List<Shape> pieces(Operation target) {
+		List<Shape> pieces = new ArrayList<>(getPieceCount());
+		float[] points = points(target.getShape());
+		for (int i = 0; i + 1 < ranges.length; i += 2) {
+			int start = ranges[i], end = ranges[i + 1];
+			if (points == null || end - start < 2 || end > points.length / 2) {
+				pieces.add(null);
+				continue;
+			}
+			Path2D.Double piece = new Path2D.Double();
+			piece.moveTo(points[start * 2], points[start * 2 + 1]);
+			for (int p = start + 1; p < end; p++) {
+				piece.lineTo(points[p * 2], points[p * 2 + 1]);
+			}
+			pieces.add(piece);
+		}
+		return pieces;
+	}
+
+	/**
+	 * @param shape shape of a confirmed operation
+	 * @return the points of the shape as x and y coordinates one after the other if it is a freehand
+	 * stroke made of straight segments, or null if it is not
+	 */
+	public static float[] points(Shape shape) {
+		if (shape == null) {
+			return null;
+		}
+		float[] points = new float[32];
+		float[] coords = new float[6];
+		int length = 0;
+		for (PathIterator it = shape.getPathIterator(null); !it.isDone(); it.next()) {
+			int type = it.currentSegment(coords);
+			if (type != (length == 0 ? PathIterator.SEG_MOVETO : PathIterator.SEG_LINETO)) {
+				return null;
+			}
+			if (length + 2 > points.length) {
+				points = Arrays.copyOf(points, points.length * 2);
+			}
+			points[length++] = coords[0];
+			points[length++] = coords[1];
+		}
+		return length > 0 ? Arrays.copyOf(points, length) : null;
+	}
+}
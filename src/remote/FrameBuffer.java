@@ -0,0 +1,132 @@
+package remote;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+
+/**
+ * Direct buffers moving frames of the NIO transport in and out of a socket channel.
+ * Incoming bytes are gathered until a whole frame has arrived, growing the buffer for frames larger than it,
+ * and outgoing frames are queued and copied into the socket a buffer at a time.
+ * Works with blocking and non-blocking channels alike, and is not thread safe.
+ *
+ * @author Si Yong Lim
+ */
+public class FrameBuffer {
+	/**
+	 * Receives each whole frame read
+	 */
+	public interface Handler {
+		/**
+		 * @param frame frame without its length
+		 */
+		void frame(byte[] frame) throws IOException;
+	}
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final ArrayDeque<byte[]> queue = new ArrayDeque<>();
+	// Part of the frame at the head of the queue already copied out
+	private int offset = 0;
+	private long queued = 0;
+	private int maxFrame = FrameCodec.MAX_FRAME;
+
+	/**
+	 * Creates buffers with nothing in them
+	 */
+	public FrameBuffer() {
+		out.flip();
+	}
+
+	/**
+	 * @param maxFrame largest frame to accept from now on, anything larger failing the read
+	 */
+	public void setMaxFrame(int maxFrame) {
+		this.maxFrame = maxFrame;
+	}
+
+	/**
+	 * Reads what has arrived and hands on every frame completed
+	 * @param channel channel to read from
+	 * @param handler receives each frame
+	 * @return false once the other end has closed the connection
+	 */
+	public boolean read(ReadableByteChannel channel, Handler handler) throws IOException {
+		if (channel.read(in) < 0) {
+			return false;
+		}
+		in.flip();
+		while (in.remaining() >= 4) {
+			int length = in.getInt(in.position());
+			if (length < 1 || length > maxFrame) {
+				throw new IOException("Bad frame length " + length);
+			}
+			if (in.remaining() < 4 + length) {
+				if (4 + length > in.capacity()) {
+					ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(4 + length, in.capacity() * 2));
+					larger.put(in);
+					in = larger;
+					return true;
+				}
+				break;
+			}
+			in.getInt();
+			byte[] frame = new byte[length];
+			in.get(frame);
+			handler.frame(frame);
+		}
+		in.compact();
+		return true;
+	}
+
+	/**
+	 * Queues a frame to be written
+	 * @param frame frame including its length
+	 */
+	public void add(byte[] frame) {
+		queue.add(frame);
+		queued += frame.length;
+	}
+
+	/**
+	 * @return number of bytes queued and not yet written
+	 */
+	public long getQueued() {
+		return queued + out.remaining();
+	}
+
+	/**
+	 * Writes as much of the queued frames as the channel takes
+	 * @param channel channel to write to
+	 * @return whether everything queued has been written
+	 */
+	public boolean write(WritableByteChannel channel) throws IOException {
+		while (true) {
+			if (!out.hasRemaining()) {
+				if (queue.isEmpty()) {
+					return true;
+				}
+				out.clear();
+				while (out.hasRemaining() && !queue.isEmpty()) {
+					byte[] head = queue.peek();
+					int count = Math.min(out.remaining(), head.length - offset);
+					out.put(head, offset, count);
+					offset += count;
+					queued -= count;
+					if (offset == head.length) {
+						queue.poll();
+						offset = 0;
+					}
+				}
+				out.flip();
+			}
+			if (channel.write(out) == 0) {
+				return false;
+			}
+		}
+	}
+}
@@ -0,0 +1,347 @@
+package remote;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.rmi.RemoteException;
+import java.util.Arrays;
+
+/**
+ * Wire format of the NIO transport. Every call on {@link IRemoteWhiteBoard} other than the join handshake
+ * is sent as a frame: a 4 byte length, a byte naming the call and then its arguments, longs and ints in
+ * big-endian order and strings and byte arrays prefixed by their length.
+ * A connection starts with a hello frame naming the user it belongs to, the token the server handed that user
+ * over RMI and whether it would like frames compressed, which the server agrees to with a frame of its own. The same frames, one after the other,
+ * carry the calls a peer sends in a single batch over either transport.
+ *
+ * @author Si Yong Lim
+ */
+public final class FrameCodec {
+	/**
+	 * Largest frame accepted, which must hold an image of the whole white board
+	 */
+	public static final int MAX_FRAME = 64 << 20;
+
+	/**
+	 * Largest frame accepted from a connection that has not yet said hello
+	 */
+	public static final int MAX_HELLO = 4 << 10;
+
+	// Calls, never renumber
+	private static final byte HELLO = 1, CONNECT = 2, DISCONNECT = 3, MESSAGE = 4, INFORM = 5, IMAGE = 6,
+			OPERATIONS = 7, CLEAR = 8, OPERATION = 9, SEQUENCED = 10, BATCH = 11, COMPRESSING = 12, DEFLATED = 13,
+			RESYNC = 14;
+
+	// Frames shorter than this are sent as they are, since compressing them saves next to nothing
+	private static final int MIN_COMPRESSED = 24;
+
+	private FrameCodec() {
+	}
+
+	/**
+	 * @param username user the connection belongs to
+	 * @param token token the server handed the user over RMI
+	 * @param compress whether the user would like frames compressed
+	 * @return the frame opening a connection
+	 */
+	public static byte[] hello(String username, byte[] token, boolean compress) {
+		return new Frame(HELLO).writeString(username).writeBytes(token).writeInt(compress ? 1 : 0).toByteArray();
+	}
+
+	/**
+	 * @param frame frame read from a connection, without its length
+	 * @return the user named if it is a hello frame, or null if it is not
+	 */
+	public static String readHello(byte[] frame) {
+		ByteBuffer in = ByteBuffer.wrap(frame);
+		return in.get() == HELLO ? readString(in) : null;
+	}
+
+	/**
+	 * @param frame hello frame, without its length
+	 * @return the token the hello carries
+	 */
+	public static byte[] readToken(byte[] frame) {
+		ByteBuffer in = ByteBuffer.wrap(frame);
+		in.get();
+		readString(in);
+		return readBytes(in);
+	}
+
+	/**
+	 * @param frame hello frame, without its length
+	 * @return whether the user would like frames compressed
+	 */
+	public static boolean readCompress(byte[] frame) {
+		ByteBuffer in = ByteBuffer.wrap(frame);
+		in.get();
+		readString(in);
+		readBytes(in);
+		return in.remaining() >= 4 && in.getInt() == 1;
+	}
+
+	/**
+	 * @return the frame agreeing to compress frames, after which either end may send compressed ones
+	 */
+	public static byte[] compressing() {
+		return new Frame(COMPRESSING).toByteArray();
+	}
+
+	/**
+	 * @param frame frame read from a connection, without its length
+	 * @return whether it is the frame agreeing to compress frames
+	 */
+	public static boolean isCompressing(byte[] frame) {
+		return frame[0] == COMPRESSING;
+	}
+
+	/**
+	 * @param frame frame read from a connection, without its length
+	 * @return whether it holds another frame compressed by {@link FrameCompressor}
+	 */
+	public static boolean isDeflated(byte[] frame) {
+		return frame[0] == DEFLATED;
+	}
+
+	/**
+	 * @param frame frame including its length
+	 * @return whether the frame is long enough to be worth compressing and not an image, which is deflated already
+	 */
+	static boolean isCompressible(byte[] frame) {
+		return frame.length >= MIN_COMPRESSED && frame[4] != IMAGE;
+	}
+
+	/**
+	 * @param bytes other frame compressed, the frame's length left out
+	 * @return the frame carrying it
+	 */
+	static byte[] deflated(byte[] bytes, int length) {
+		return new Frame(DEFLATED).writeRaw(bytes, length).toByteArray();
+	}
+
+	static byte[] connect(String username, long lastSequence) {
+		return new Frame(CONNECT).writeString(username).writeLong(lastSequence).toByteArray();
+	}
+
+	static byte[] resync(String username, long lastSequence) {
+		return new Frame(RESYNC).writeString(username).writeLong(lastSequence).toByteArray();
+	}
+
+	static byte[] disconnect(String username) {
+		return new Frame(DISCONNECT).writeString(username).toByteArray();
+	}
+
+	static byte[] message(String username, String message) {
+		return new Frame(MESSAGE).writeString(username).writeString(message).toByteArray();
+	}
+
+	static byte[] inform(String username, Action action) {
+		return new Frame(INFORM).writeString(username).writeInt(action == null ? -1 : action.ordinal()).toByteArray();
+	}
+
+	static byte[] image(byte[] imageBytes, long sequence) {
+		return new Frame(IMAGE).writeBytes(imageBytes).writeLong(sequence).toByteArray();
+	}
+
+	static byte[] operations(byte[] operations, long sequence) {
+		return new Frame(OPERATIONS).writeBytes(operations).writeLong(sequence).toByteArray();
+	}
+
+	static byte[] clear(long sequence) {
+		return new Frame(CLEAR).writeLong(sequence).toByteArray();
+	}
+
+	static byte[] operation(byte[] operation) {
+		return new Frame(OPERATION).writeBytes(operation).toByteArray();
+	}
+
+	static byte[] sequenced(byte[] operation, long sequence) {
+		return new Frame(SEQUENCED).writeBytes(operation).writeLong(sequence).toByteArray();
+	}
+
+	static byte[] batch(byte[] calls) {
+		return new Frame(BATCH).writeBytes(calls).toByteArray();
+	}
+
+	/**
+	 * Makes the calls stood for by frames written one after the other, in order. The whole batch is
+	 * rejected, with none of its calls made, should any of its lengths not fit it.
+	 * @param frames frames including their lengths
+	 * @param target session the calls are made on
+	 * @param host session passed on as the reference of a user joining
+	 */
+	public static void dispatchAll(byte[] frames, IRemoteWhiteBoard target, IRemoteWhiteBoard host) throws RemoteException {
+		ByteBuffer in = ByteBuffer.wrap(frames);
+		while (in.hasRemaining()) {
+			int length = in.remaining() >= 4 ? in.getInt() : -1;
+			if (length < 1 || length > MAX_FRAME || length > in.remaining()) {
+				throw new RemoteException("Bad frame length " + length + " in batch");
+			}
+			in.position(in.position() + length);
+		}
+		in.rewind();
+		while (in.hasRemaining()) {
+			byte[] frame = new byte[in.getInt()];
+			in.get(frame);
+			dispatch(frame, target, host);
+		}
+	}
+
+	/**
+	 * Checks that a frame only makes calls in the name of a user, so that a connection cannot
+	 * speak for anyone other than the user who said hello on it. Calls naming no user are let through.
+	 * @param frame frame read from a connection, without its length
+	 * @param username user the connection belongs to
+	 * @return whether every call the frame stands for, including those in a batch, is made by the user
+	 */
+	public static boolean isFrom(byte[] frame, String username) {
+		ByteBuffer in = ByteBuffer.wrap(frame);
+		switch (in.get()) {
+			case CONNECT:
+			case RESYNC:
+			case DISCONNECT:
+			case MESSAGE:
+			case INFORM:
+				return readString(in).equals(username);
+			case OPERATION:
+				return OperationCodec.readUsername(readBytes(in)).equals(username);
+			case BATCH:
+				ByteBuffer calls = ByteBuffer.wrap(readBytes(in));
+				while (calls.hasRemaining()) {
+					if (!isFrom(readBytes(calls), username)) {
+						return false;
+					}
+				}
+				return true;
+			default:
+				return true;
+		}
+	}
+
+	/**
+	 * Makes the call a frame stands for
+	 * @param frame frame read from a connection, without its length
+	 * @param target session the call is made on
+	 * @param host session passed on as the reference of a user joining, since in a hub they are reached through it
+	 */
+	public static void dispatch(byte[] frame, IRemoteWhiteBoard target, IRemoteWhiteBoard host) throws RemoteException {
+		ByteBuffer in = ByteBuffer.wrap(frame);
+		byte call = in.get();
+		switch (call) {
+			case HELLO:
+			case COMPRESSING:
+				break;
+			case CONNECT:
+				target.connect(readString(in), host, in.getLong());
+				break;
+			case RESYNC:
+				target.resync(readString(in), in.getLong());
+				break;
+			case DISCONNECT:
+				target.disconnect(readString(in));
+				break;
+			case MESSAGE:
+				target.receiveMessage(readString(in), readString(in));
+				break;
+			case INFORM:
+				String username = readString(in);
+				int action = in.getInt();
+				target.inform(username, action < 0 ? null : Action.values()[action]);
+				break;
+			case IMAGE:
+				target.sendImage(readBytes(in), in.getLong());
+				break;
+			case OPERATIONS:
+				target.sendOperations(readBytes(in), in.getLong());
+				break;
+			case CLEAR:
+				target.clearImage(in.getLong());
+				break;
+			case OPERATION:
+				target.applyOperation(readBytes(in));
+				break;
+			case SEQUENCED:
+				target.applySequenced(readBytes(in), in.getLong());
+				break;
+			case BATCH:
+				target.applyBatch(readBytes(in));
+				break;
+			default:
+				throw new RemoteException("Unknown frame " + call);
+		}
+	}
+
+	private static String readString(ByteBuffer in) {
+		return new String(readBytes(in), StandardCharsets.UTF_8);
+	}
+
+	private static byte[] readBytes(ByteBuffer in) {
+		int length = in.getInt();
+		if (length < 0 || length > in.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Frame being written, with room left at the start for its length
+	 */
+	private static class Frame {
+		private byte[] bytes = new byte[64];
+		private int size = 4;
+
+		Frame(byte call) {
+			ensure(1);
+			bytes[size++] = call;
+		}
+
+		Frame writeInt(int value) {
+			ensure(4);
+			for (int shift = 24; shift >= 0; shift -= 8) {
+				bytes[size++] = (byte) (value >>> shift);
+			}
+			return this;
+		}
+
+		Frame writeLong(long value) {
+			ensure(8);
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				bytes[size++] = (byte) (value >>> shift);
+			}
+			return this;
+		}
+
+		Frame writeBytes(byte[] value) {
+			writeInt(value.length);
+			return writeRaw(value, value.length);
+		}
+
+		Frame writeRaw(byte[] value, int length) {
+			ensure(length);
+			System.arraycopy(value, 0, bytes, size, length);
+			size += length;
+			return this;
+		}
+
+		Frame writeString(String value) {
+			return writeBytes(value.getBytes(StandardCharsets.UTF_8));
+		}
+
+		private void ensure(int extra) {
+			if (size + extra > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+			}
+		}
+
+		byte[] toByteArray() {
+			int length = size - 4;
+			bytes[0] = (byte) (length >>> 24);
+			bytes[1] = (byte) (length >>> 16);
+			bytes[2] = (byte) (length >>> 8);
+			bytes[3] = (byte) length;
+			return Arrays.copyOf(bytes, size);
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package remote;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses the frames going one way down a connection and inflates those coming the other way.
+ * Each end keeps a single deflate stream for the life of the connection, flushed after every frame, so
+ * a frame is compressed against everything sent before it and a run of similar previews shrinks to a
+ * few bytes each. Both streams start from a dictionary of the frames most often sent, so that the first
+ * frames compress well too. Frames too short to gain anything and images, which are deflated already,
+ * are sent as they are and left out of the stream.
+ *
+ * @author Si Yong Lim
+ */
+public class FrameCompressor {
+	// Frames most often sent, which both ends must agree on
+	private static final byte[] DICTIONARY = dictionary();
+
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+	private final Inflater inflater = new Inflater();
+	private final CompressionStats stats;
+	private byte[] deflated = new byte[1024];
+	private byte[] inflated = new byte[1024];
+	private boolean ended = false;
+
+	/**
+	 * @param stats where the savings and time taken are counted
+	 */
+	public FrameCompressor(CompressionStats stats) {
+		this.stats = stats;
+		deflater.setDictionary(DICTIONARY);
+	}
+
+	/**
+	 * Compresses a frame, called in the order frames are written
+	 * @param frame frame including its length
+	 * @return the frame compressed, or the frame itself if not worth compressing or the connection is closed
+	 */
+	public synchronized byte[] compress(byte[] frame) {
+		if (ended || !FrameCodec.isCompressible(frame)) {
+			return frame;
+		}
+		long start = System.nanoTime();
+		deflater.setInput(frame, 4, frame.length - 4);
+		int size = 0;
+		while (true) {
+			int written = deflater.deflate(deflated, size, deflated.length - size, Deflater.SYNC_FLUSH);
+			size += written;
+			if (size < deflated.length) {
+				break;
+			}
+			deflated = Arrays.copyOf(deflated, deflated.length * 2);
+		}
+		byte[] compressed = FrameCodec.deflated(deflated, size);
+		stats.deflated(frame.length, compressed.length, System.nanoTime() - start);
+		return compressed;
+	}
+
+	/**
+	 * Inflates a compressed frame, called in the order frames are read
+	 * @param frame frame read, without its length
+	 * @return the frame it holds, without its length
+	 */
+	public byte[] inflate(byte[] frame) throws IOException {
+		long start = System.nanoTime();
+		inflater.setInput(frame, 1, frame.length - 1);
+		int size = 0;
+		try {
+			while (true) {
+				if (size == inflated.length) {
+					if (size >= FrameCodec.MAX_FRAME) {
+						throw new IOException("Compressed frame too large");
+					}
+					inflated = Arrays.copyOf(inflated, size * 2);
+				}
+				int read = inflater.inflate(inflated, size, inflated.length - size);
+				size += read;
+				if (read == 0) {
+					if (inflater.needsDictionary()) {
+						inflater.setDictionary(DICTIONARY);
+					} else if (inflater.needsInput()) {
+						break;
+					} else if (size < inflated.length) {
+						throw new IOException("Compressed stream ended");
+					}
+				}
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Bad compressed frame", e);
+		}
+		stats.inflated(System.nanoTime() - start);
+		return Arrays.copyOf(inflated, size);
+	}
+
+	/**
+	 * Frees the streams once the connection is closed, on the thread reading it
+	 */
+	public synchronized void end() {
+		ended = true;
+		deflater.end();
+		inflater.end();
+	}
+
+	private static byte[] dictionary() {
+		byte[][] frames = {
+				FrameCodec.inform("", null),
+				FrameCodec.message("", ""),
+				FrameCodec.clear(0),
+				FrameCodec.operation(new byte[0]),
+				FrameCodec.sequenced(new byte[0], 0),
+				FrameCodec.batch(new byte[0])
+		};
+		byte[] dictionary = new byte[0];
+		for (byte[] frame : frames) {
+			int size = dictionary.length;
+			dictionary = Arrays.copyOf(dictionary, size + frame.length);
+			System.arraycopy(frame, 0, dictionary, size, frame.length);
+		}
+		return dictionary;
+	}
+}
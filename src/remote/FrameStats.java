@@ -0,0 +1,62 @@
+package remote;
+
+/**
+ * Keeps count of how long the drawing panels take to paint, so that render modes can be compared.
+ * When enabled, a summary is printed every so many frames.
+ *
+ * @author Si Yong Lim
+ */
+public class FrameStats {
+	// Number of frames summarised in each report
+	private static final int REPORT_FRAMES = 300;
+
+	private final String name;
+	private final boolean report;
+	private long frames = 0;
+	private long totalNanos = 0;
+	private long maxNanos = 0;
+
+	/**
+	 * @param name what is being timed, shown in reports
+	 * @param report whether to print a summary every so many frames
+	 */
+	public FrameStats(String name, boolean report) {
+		this.name = name;
+		this.report = report;
+	}
+
+	/**
+	 * Records the time taken to paint a frame
+	 * @param nanos time taken in nanoseconds
+	 */
+	public synchronized void record(long nanos) {
+		frames++;
+		totalNanos += nanos;
+		maxNanos = Math.max(maxNanos, nanos);
+		if (report && frames % REPORT_FRAMES == 0) {
+			System.out.println(this);
+			totalNanos = 0;
+			maxNanos = 0;
+			frames = 0;
+		}
+	}
+
+	/**
+	 * @return average time taken to paint a frame in milliseconds since the last report
+	 */
+	public synchronized double getAverageMillis() {
+		return frames == 0 ? 0 : totalNanos / 1e6 / frames;
+	}
+
+	/**
+	 * @return longest time taken to paint a frame in milliseconds since the last report
+	 */
+	public synchronized double getMaxMillis() {
+		return maxNanos / 1e6;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("Frame time (%s): average %.3f ms, max %.3f ms over %d frames", name, getAverageMillis(), getMaxMillis(), frames);
+	}
+}
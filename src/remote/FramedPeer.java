@@ -0,0 +1,126 @@
+package remote;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Session of a peer reached over the NIO transport. Every call is turned into a frame by {@link FrameCodec}
+ * and handed to the connection, so it can stand in for an RMI stub anywhere a peer is called.
+ * Only used in a hub, where a client and the server are the only ones talking to each other.
+ *
+ * @author Si Yong Lim
+ */
+public class FramedPeer implements IRemoteWhiteBoard {
+	/**
+	 * Connection frames are written to
+	 */
+	public interface Sink {
+		/**
+		 * Queues a frame to be written, waiting if too much is queued already
+		 * @param frame frame including its length
+		 */
+		void send(byte[] frame) throws RemoteException;
+	}
+
+	private final String username;
+	private final Sink sink;
+
+	/**
+	 * @param username user at the other end of the connection
+	 * @param sink connection to the user
+	 */
+	public FramedPeer(String username, Sink sink) {
+		this.username = username;
+		this.sink = sink;
+	}
+
+	/**
+	 * Tells the peer someone has joined, who it reaches through the server
+	 * @param username username of new client connecting
+	 * @param client not sent, the peer uses the server's session
+	 * @param lastSequence sequence number of the last operation the new client already has
+	 * @return null since the call does not wait for an answer
+	 */
+	@Override
+	public ConcurrentHashMap<String, IRemoteWhiteBoard> connect(String username, IRemoteWhiteBoard client, long lastSequence) throws RemoteException {
+		sink.send(FrameCodec.connect(username, lastSequence));
+		return null;
+	}
+
+	@Override
+	public void resync(String username, long lastSequence) throws RemoteException {
+		sink.send(FrameCodec.resync(username, lastSequence));
+	}
+
+	/**
+	 * Tokens are only handed out over RMI
+	 * @param username 
+	 * @param client 
+	 * @return null
+	 */
+	@Override
+	public byte[] nioToken(String username, IRemoteWhiteBoard client) throws RemoteException {
+		return null;
+	}
+
+	/**
+	 * @return username of the peer
+	 */
+	@Override
+	public String getUsername() throws RemoteException {
+		return username;
+	}
+
+	/**
+	 * @return hub, the only topology the NIO transport is used in
+	 */
+	@Override
+	public Topology getTopology() throws RemoteException {
+		return Topology.HUB;
+	}
+
+	@Override
+	public void disconnect(String username) throws RemoteException {
+		sink.send(FrameCodec.disconnect(username));
+	}
+
+	@Override
+	public void receiveMessage(String username, String message) throws RemoteException {
+		sink.send(FrameCodec.message(username, message));
+	}
+
+	@Override
+	public void inform(String username, Action operation) throws RemoteException {
+		sink.send(FrameCodec.inform(username, operation));
+	}
+
+	@Override
+	public void sendImage(byte[] imageBytes, long sequence) throws RemoteException {
+		sink.send(FrameCodec.image(imageBytes, sequence));
+	}
+
+	@Override
+	public void sendOperations(byte[] operations, long sequence) throws RemoteException {
+		sink.send(FrameCodec.operations(operations, sequence));
+	}
+
+	@Override
+	public void clearImage(long sequence) throws RemoteException {
+		sink.send(FrameCodec.clear(sequence));
+	}
+
+	@Override
+	public void applyOperation(byte[] operation) throws RemoteException {
+		sink.send(FrameCodec.operation(operation));
+	}
+
+	@Override
+	public void applySequenced(byte[] operation, long sequence) throws RemoteException {
+		sink.send(FrameCodec.sequenced(operation, sequence));
+	}
+
+	@Override
+	public void applyBatch(byte[] calls) throws RemoteException {
+		sink.send(FrameCodec.batch(calls));
+	}
+}
@@ -1,6 +1,5 @@
 package remote;
 
-import java.awt.*;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.util.concurrent.ConcurrentHashMap;
@@ -16,9 +15,35 @@ public interface IRemoteWhiteBoard extends Remote {
 	 * When someone else wants to connect to the active session
 	 * @param username username of new client connecting
 	 * @param client reference to client session
+	 * @param lastSequence sequence number of the last operation the client already has, 0 if it has none
 	 * @return returns a hash map of users mapped to their reference session
 	 */
-	public ConcurrentHashMap<String, IRemoteWhiteBoard> connect(String username, IRemoteWhiteBoard client) throws RemoteException;
+	public ConcurrentHashMap<String, IRemoteWhiteBoard> connect(String username, IRemoteWhiteBoard client, long lastSequence) throws RemoteException;
+
+	/**
+	 * Called by a client in a hub that has missed something the server handed out, to be brought up to date again
+	 * @param username username of the client
+	 * @param lastSequence sequence number of the last operation the client has applied
+	 */
+	public void resync(String username, long lastSequence) throws RemoteException;
+
+	/**
+	 * Called over RMI by a client in a hub that has joined, for the token its hello on the NIO transport has to carry
+	 * @param username username of the client
+	 * @param client reference to the client session it joined with
+	 * @return a token good for a single connection, or null if the client has not joined with that session
+	 */
+	public byte[] nioToken(String username, IRemoteWhiteBoard client) throws RemoteException;
+
+	/**
+	 * @return username of the user this session belongs to
+	 */
+	public String getUsername() throws RemoteException;
+
+	/**
+	 * @return how users in the session reach each other, as decided by the manager
+	 */
+	public Topology getTopology() throws RemoteException;
 
 	/**
 	 * When other people want to disconnect
@@ -41,44 +66,43 @@ public interface IRemoteWhiteBoard extends Remote {
 	public void inform(String username, Action operation) throws RemoteException;
 	
 	/**
-	 * Called when others want to draw a shape on this user's window
-	 * @param shape shape to be drawn
-	 * @param color color used
-	 * @param size shape's stroke size
+	 * Called when user wants to send the existing state of the white board
+	 * @param imageBytes the background and the shapes and text on it, written by {@link SceneLog.Contents#write}
+	 * @param sequence sequence number of the last operation included in the image
 	 */
-	public void drawShape(Shape shape, Color color, float size) throws RemoteException;
+	public void sendImage(byte[] imageBytes, long sequence) throws RemoteException;
 	
 	/**
-	 * Called when user wants to send the existing state of the white board
-	 * @param imageBytes an image converted into a stream of bytes 
+	 * Called when user wants to bring the white board up to date with only the operations missing from it
+	 * @param operations the missing operations encoded by {@link OperationCodec#encodeAll}
+	 * @param sequence sequence number of the last operation sent
 	 */
-	public void sendImage(byte[] imageBytes) throws RemoteException;
+	public void sendOperations(byte[] operations, long sequence) throws RemoteException;
 	
 	/**
 	 * Called when server wants to clear image on user's side
+	 * @param sequence sequence number the clear took up on the server's white board
+	 */
+	public void clearImage(long sequence) throws RemoteException;
+	
+	/**
+	 * Called when others want to apply a drawing operation on this user's side, such as
+	 * a confirmed shape or text, a preview or part of a freehand stroke
+	 * @param operation operation encoded by {@link OperationCodec}
 	 */
-	public void clearImage() throws RemoteException;
+	public void applyOperation(byte[] operation) throws RemoteException;
 	
 	/**
-	 * Called when others want to draw text on other's side
-	 * @param string string to be rendered
-	 * @param x x coordinate of text
-	 * @param y y coordinate of text
-	 * @param color color used
-	 * @param font font's stroke size
+	 * Called by the server in a hub to hand out a confirmed shape, text or delete, to the user who
+	 * drew it as well, stamped with the sequence number everyone applies it in
+	 * @param operation operation encoded by {@link OperationCodec}
+	 * @param sequence sequence number of the operation on the server's white board
 	 */
-	public void drawText(String string, int x, int y, Color color, Font font) throws RemoteException;
+	public void applySequenced(byte[] operation, long sequence) throws RemoteException;
 	
 	/**
-	 * Called when others want to send a preview to be rendered on this side
-	 * @param username user sending the preview
-	 * @param shape shape to be drawn
-	 * @param color color used
-	 * @param size shape's stroke size
-	 * @param string string to be rendered
-	 * @param x x coordinate of text
-	 * @param y y coordinate of text
-	 * @param font font's stroke size
+	 * Called when others send several calls made within a short time of each other in one go
+	 * @param calls the calls in order, each encoded as a frame by {@link FrameCodec}
 	 */
-	public void updatePreview(String username, Shape shape, Color color, float size, String string, int x, int y, Font font) throws RemoteException;
-}
\ No newline at end of file
+	public void applyBatch(byte[] calls) throws RemoteException;
+}
@@ -0,0 +1,73 @@
+package remote;
+
+/**
+ * Keeps count of how long remote calls to a peer take to come back, so that the sockets and transports
+ * they go over can be compared. When enabled, a summary is printed every so many calls.
+ *
+ * @author Si Yong Lim
+ */
+public class LatencyStats {
+	// Number of calls summarised in each report
+	private static final int REPORT_CALLS = 200;
+
+	private final String name;
+	private final boolean report;
+	private long calls = 0;
+	private long totalNanos = 0;
+	private long minNanos = Long.MAX_VALUE;
+	private long maxNanos = 0;
+
+	/**
+	 * @param name peer being called, shown in reports
+	 * @param report whether to print a summary every so many calls
+	 */
+	public LatencyStats(String name, boolean report) {
+		this.name = name;
+		this.report = report;
+	}
+
+	/**
+	 * Records the time taken by a call that went through
+	 * @param nanos time taken in nanoseconds
+	 */
+	public synchronized void record(long nanos) {
+		calls++;
+		totalNanos += nanos;
+		minNanos = Math.min(minNanos, nanos);
+		maxNanos = Math.max(maxNanos, nanos);
+		if (report && calls % REPORT_CALLS == 0) {
+			System.out.println(this);
+			calls = 0;
+			totalNanos = 0;
+			minNanos = Long.MAX_VALUE;
+			maxNanos = 0;
+		}
+	}
+
+	/**
+	 * @return average time taken by a call in milliseconds since the last report
+	 */
+	public synchronized double getAverageMillis() {
+		return calls == 0 ? 0 : totalNanos / 1e6 / calls;
+	}
+
+	/**
+	 * @return shortest time taken by a call in milliseconds since the last report
+	 */
+	public synchronized double getMinMillis() {
+		return calls == 0 ? 0 : minNanos / 1e6;
+	}
+
+	/**
+	 * @return longest time taken by a call in milliseconds since the last report
+	 */
+	public synchronized double getMaxMillis() {
+		return maxNanos / 1e6;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("Call latency (%s): average %.3f ms, min %.3f ms, max %.3f ms over %d calls",
+				name, getAverageMillis(), getMinMillis(), getMaxMillis(), calls);
+	}
+}
@@ -0,0 +1,149 @@
+package remote;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from primitive long keys to objects, using open addressing so that
+ * looking a key up never allocates. Not thread safe.
+ *
+ * @author Si Yong Lim
+ * @param <V> type of values
+ */
+public class LongObjectMap<V> {
+	// Keys are spread with the 64 bit golden ratio before being masked down to a slot
+	private static final long SPREAD = 0x9E3779B97F4A7C15L;
+
+	private long[] keys;
+	private Object[] values;
+	private int size = 0;
+
+	public LongObjectMap() {
+		keys = new long[16];
+		values = new Object[16];
+	}
+
+	/**
+	 * @param key key to look up
+	 * @return the value for the key, or null if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		int mask = keys.length - 1;
+		for (int i = slot(key, mask); values[i] != null; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				return (V) values[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param key key to set
+	 * @param value value for the key, which must not be null
+	 * @return the value the key had before, or null if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value) {
+		if ((size + 1) * 4 > keys.length * 3) {
+			resize(keys.length * 2);
+		}
+		int mask = keys.length - 1;
+		int i = slot(key, mask);
+		for (; values[i] != null; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				V old = (V) values[i];
+				values[i] = value;
+				return old;
+			}
+		}
+		keys[i] = key;
+		values[i] = value;
+		size++;
+		return null;
+	}
+
+	/**
+	 * @param key key to remove
+	 * @return the value the key had, or null if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(long key) {
+		int mask = keys.length - 1;
+		int i = slot(key, mask);
+		for (; values[i] != null; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				break;
+			}
+		}
+		V old = (V) values[i];
+		if (old == null) {
+			return null;
+		}
+		// Shifts back any key after the gap that would no longer be found past it
+		for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+			int home = slot(keys[j], mask);
+			if (((j - home) & mask) >= ((j - i) & mask)) {
+				keys[i] = keys[j];
+				values[i] = values[j];
+				i = j;
+			}
+		}
+		values[i] = null;
+		size--;
+		return old;
+	}
+
+	/**
+	 * @return number of keys in the map
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return whether the map has no keys
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes every key
+	 */
+	public void clear() {
+		Arrays.fill(values, null);
+		size = 0;
+	}
+
+	/**
+	 * @return every key in the map, in no particular order
+	 */
+	public long[] keys() {
+		long[] result = new long[size];
+		int n = 0;
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null) {
+				result[n++] = keys[i];
+			}
+		}
+		return result;
+	}
+
+	private static int slot(long key, int mask) {
+		return (int) ((key * SPREAD) >>> 32) & mask;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void resize(int capacity) {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new long[capacity];
+		values = new Object[capacity];
+		size = 0;
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] != null) {
+				put(oldKeys[i], (V) oldValues[i]);
+			}
+		}
+	}
+}
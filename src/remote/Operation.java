@@ -0,0 +1,271 @@
+package remote;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Shape;
+import java.util.List;
+
+/**
+ * A single drawing operation exchanged between users.
+ * Operations are sent over the wire in the compact form produced by {@link OperationCodec}.
+ *
+ * @author Si Yong Lim
+ */
+@SuppressWarnings("exports")
+public class Operation {
+	/**
+	 * Kinds of operation, each with a fixed tag used on the wire
+	 */
+	public enum Type {
+		SHAPE(1), TEXT(2), PREVIEW(3), STROKE_BEGIN(4), STROKE_APPEND(5), STROKE_END(6), DELETE(7);
+
+		private final int tag;
+
+		Type(int tag) {
+			this.tag = tag;
+		}
+
+		/**
+		 * @return tag written on the wire for this type
+		 */
+		public int getTag() {
+			return tag;
+		}
+
+		/**
+		 * @param tag tag read from the wire
+		 * @return the type with the given tag
+		 */
+		public static Type fromTag(int tag) {
+			for (Type type : values()) {
+				if (type.tag == tag) {
+					return type;
+				}
+			}
+			throw new IllegalArgumentException("Unknown operation tag " + tag);
+		}
+	}
+
+	private final Type type;
+	private final String username;
+	private final Shape shape;
+	private final Color color;
+	private final float size;
+	private final String string;
+	private final int x, y;
+	private final Font font;
+	private final long strokeId;
+	private final float[] points;
+	private final List<Erasure> erasures;
+	private long sequence = 0;
+
+	public Operation(Type type, String username, Shape shape, Color color, float size, String string, int x, int y, Font font,
+			long strokeId, float[] points) {
+		this(type, username, shape, color, size, string, x, y, font, strokeId, points, null);
+	}
+
+	private Operation(Type type, String username, Shape shape, Color color, float size, String string, int x, int y, Font font,
+			long strokeId, float[] points, List<Erasure> erasures) {
+		this.type = type;
+		this.username = username;
+		this.shape = shape;
+		this.color = color;
+		this.size = size;
+		this.string = string;
+		this.x = x;
+		this.y = y;
+		this.font = font;
+		this.strokeId = strokeId;
+		this.points = points;
+		this.erasures = erasures;
+	}
+
+	/**
+	 * A confirmed shape to be drawn onto the white board
+	 * @param username user who drew the shape
+	 * @param strokeId id of the shape, unique for the user
+	 * @param shape shape to be drawn
+	 * @param color color used
+	 * @param size shape's stroke size
+	 * @return the operation
+	 */
+	public static Operation shape(String username, long strokeId, Shape shape, Color color, float size) {
+		return new Operation(Type.SHAPE, username, shape, color, size, null, 0, 0, null, strokeId, null);
+	}
+
+	/**
+	 * A confirmed text to be drawn onto the white board
+	 * @param username user who wrote the text
+	 * @param strokeId id of the text, unique for the user
+	 * @param string string to be rendered
+	 * @param x x coordinate of text
+	 * @param y y coordinate of text
+	 * @param color color used
+	 * @param font font used
+	 * @return the operation
+	 */
+	public static Operation text(String username, long strokeId, String string, int x, int y, Color color, Font font) {
+		return new Operation(Type.TEXT, username, null, color, 0, string, x, y, font, strokeId, null);
+	}
+
+	/**
+	 * A preview of what a user is drawing, or a reset of their preview when both shape and string are null
+	 * @param username user sending the preview
+	 * @param shape shape to be drawn
+	 * @param color color used
+	 * @param size shape's stroke size
+	 * @param string string to be rendered
+	 * @param x x coordinate of text
+	 * @param y y coordinate of text
+	 * @param font font used
+	 * @return the operation
+	 */
+	public static Operation preview(String username, Shape shape, Color color, float size, String string, int x, int y, Font font) {
+		return new Operation(Type.PREVIEW, username, shape, color, size, string, x, y, font, 0, null);
+	}
+
+	/**
+	 * Start of a freehand stroke
+	 * @param username user drawing the stroke
+	 * @param strokeId id of the stroke, unique for the user
+	 * @param color color used
+	 * @param size stroke size
+	 * @param x x coordinate of first point
+	 * @param y y coordinate of first point
+	 * @return the operation
+	 */
+	public static Operation beginStroke(String username, long strokeId, Color color, float size, float x, float y) {
+		return new Operation(Type.STROKE_BEGIN, username, null, color, size, null, 0, 0, null, strokeId, new float[] { x, y });
+	}
+
+	/**
+	 * Points added to a freehand stroke since the last update
+	 * @param username user drawing the stroke
+	 * @param strokeId id of the stroke
+	 * @param points new points as x and y coordinates one after the other
+	 * @return the operation
+	 */
+	public static Operation appendPoints(String username, long strokeId, float[] points) {
+		return new Operation(Type.STROKE_APPEND, username, null, null, 0, null, 0, 0, null, strokeId, points);
+	}
+
+	/**
+	 * End of a freehand stroke
+	 * @param username user drawing the stroke
+	 * @param strokeId id of the stroke
+	 * @return the operation
+	 */
+	public static Operation endStroke(String username, long strokeId) {
+		return new Operation(Type.STROKE_END, username, null, null, 0, null, 0, 0, null, strokeId, null);
+	}
+
+	/**
+	 * Confirmed shapes and text taken off the white board, freehand strokes only partly erased being split
+	 * into pieces that are given consecutive ids of the user erasing
+	 * @param username user erasing
+	 * @param strokeId id given to the first piece, unique for the user
+	 * @param erasures shapes and text erased
+	 * @return the operation
+	 */
+	public static Operation delete(String username, long strokeId, List<Erasure> erasures) {
+		return new Operation(Type.DELETE, username, null, null, 0, null, 0, 0, null, strokeId, null, erasures);
+	}
+
+	/**
+	 * @return the type
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * @return the username
+	 */
+	public String getUsername() {
+		return username;
+	}
+
+	/**
+	 * @return the shape
+	 */
+	public Shape getShape() {
+		return shape;
+	}
+
+	/**
+	 * @return the color
+	 */
+	public Color getColor() {
+		return color;
+	}
+
+	/**
+	 * @return the stroke size
+	 */
+	public float getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the string
+	 */
+	public String getString() {
+		return string;
+	}
+
+	/**
+	 * @return the x
+	 */
+	public int getX() {
+		return x;
+	}
+
+	/**
+	 * @return the y
+	 */
+	public int getY() {
+		return y;
+	}
+
+	/**
+	 * @return the font
+	 */
+	public Font getFont() {
+		return font;
+	}
+
+	/**
+	 * @return the id of the stroke, shape or text, unique for the user
+	 */
+	public long getStrokeId() {
+		return strokeId;
+	}
+
+	/**
+	 * @return the points as x and y coordinates one after the other
+	 */
+	public float[] getPoints() {
+		return points;
+	}
+
+	/**
+	 * @return the shapes and text erased by a delete
+	 */
+	public List<Erasure> getErasures() {
+		return erasures;
+	}
+
+	/**
+	 * @return the sequence number given to this operation by the scene log, or 0 if not logged yet
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @param sequence the sequence to set
+	 */
+	public void setSequence(long sequence) {
+		this.sequence = sequence;
+	}
+}
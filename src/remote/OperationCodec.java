@@ -0,0 +1,523 @@
+package remote;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Shape;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.awt.geom.RectangularShape;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact binary encoding for drawing operations, used instead of default Java serialization
+ * of the java.awt Shape, Color and Font classes.
+ * Coordinates are stored in eighths of a pixel as zig-zag varints, each one relative to the previous,
+ * colors are packed ARGB ints, common font families are replaced by small ids and every shape
+ * is tagged with the {@link Action} that drew it so that only its defining points are sent.
+ *
+ * @author Si Yong Lim
+ */
+public final class OperationCodec {
+	// Coordinates are rounded to 1/QUANTUM of a pixel
+	private static final float QUANTUM = 8f;
+
+	// Shapes that are not one of the drawing actions are sent segment by segment
+	private static final int PATH_TAG = 0x7F;
+
+	// Preview flags
+	private static final int HAS_SHAPE = 1, HAS_TEXT = 2, HAS_COLOR = 4;
+
+	// Font families sent as an id rather than by name, never reorder
+	private static final String[] FONT_FAMILIES = { "Arial", "Dialog", "SansSerif", "Serif", "Monospaced" };
+
+	private OperationCodec() {
+	}
+
+	/**
+	 * Encodes an operation
+	 * @param operation operation to be encoded
+	 * @return the encoded bytes
+	 */
+	public static byte[] encode(Operation operation) {
+		Writer out = new Writer();
+		write(operation, out);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decodes an operation
+	 * @param bytes bytes produced by {@link #encode(Operation)}
+	 * @return the decoded operation
+	 */
+	public static Operation decode(byte[] bytes) {
+		return read(new Reader(bytes));
+	}
+
+	/**
+	 * Reads only the user an operation is drawn by, without decoding the rest of it
+	 * @param bytes bytes produced by {@link #encode(Operation)}
+	 * @return the user who drew the operation
+	 */
+	public static String readUsername(byte[] bytes) {
+		Reader in = new Reader(bytes);
+		in.readByte();
+		return in.readString();
+	}
+
+	/**
+	 * Encodes several operations one after the other into a single buffer
+	 * @param operations operations to be encoded
+	 * @return the encoded bytes
+	 */
+	public static byte[] encodeAll(List<Operation> operations) {
+		Writer out = new Writer();
+		out.writeVarint(operations.size());
+		for (Operation operation : operations) {
+			write(operation, out);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decodes several operations encoded into a single buffer
+	 * @param bytes bytes produced by {@link #encodeAll(List)}
+	 * @return the decoded operations in order
+	 */
+	public static List<Operation> decodeAll(byte[] bytes) {
+		Reader in = new Reader(bytes);
+		int count = (int) in.readVarint();
+		List<Operation> operations = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			operations.add(read(in));
+		}
+		return operations;
+	}
+
+	private static void write(Operation op, Writer out) {
+		out.writeByte(op.getType().getTag());
+		out.writeString(op.getUsername());
+		switch (op.getType()) {
+			case SHAPE:
+				out.writeVarint(op.getStrokeId());
+				out.writeColor(op.getColor());
+				out.writeSize(op.getSize());
+				writeShape(op.getShape(), out);
+				break;
+			case TEXT:
+				out.writeVarint(op.getStrokeId());
+				out.writeString(op.getString());
+				out.writeSignedVarint(op.getX());
+				out.writeSignedVarint(op.getY());
+				out.writeColor(op.getColor());
+				writeFont(op.getFont(), out);
+				break;
+			case PREVIEW:
+				int flags = (op.getShape() != null ? HAS_SHAPE : 0) | (op.getString() != null ? HAS_TEXT : 0)
+						| (op.getColor() != null ? HAS_COLOR : 0);
+				out.writeByte(flags);
+				if (op.getColor() != null) {
+					out.writeColor(op.getColor());
+				}
+				if (op.getShape() != null) {
+					out.writeSize(op.getSize());
+					writeShape(op.getShape(), out);
+				}
+				if (op.getString() != null) {
+					out.writeString(op.getString());
+					out.writeSignedVarint(op.getX());
+					out.writeSignedVarint(op.getY());
+					writeFont(op.getFont(), out);
+				}
+				break;
+			case STROKE_BEGIN:
+				out.writeVarint(op.getStrokeId());
+				out.writeColor(op.getColor());
+				out.writeSize(op.getSize());
+				out.writePoints(op.getPoints(), op.getPoints().length);
+				break;
+			case STROKE_APPEND:
+				out.writeVarint(op.getStrokeId());
+				out.writePoints(op.getPoints(), op.getPoints().length);
+				break;
+			case STROKE_END:
+				out.writeVarint(op.getStrokeId());
+				break;
+			case DELETE:
+				out.writeVarint(op.getStrokeId());
+				out.writeVarint(op.getErasures().size());
+				for (Erasure erasure : op.getErasures()) {
+					out.writeString(erasure.getUsername());
+					out.writeVarint(erasure.getStrokeId());
+					// Ranges only go up so each bound is sent relative to the one before
+					int[] ranges = erasure.getRanges();
+					out.writeVarint(ranges.length / 2);
+					int previous = 0;
+					for (int bound : ranges) {
+						out.writeVarint(bound - previous);
+						previous = bound;
+					}
+				}
+				break;
+		}
+	}
+
+	private static Operation read(Reader in) {
+		Operation.Type type = Operation.Type.fromTag(in.readByte());
+		String username = in.readString();
+		switch (type) {
+			case SHAPE: {
+				long strokeId = in.readVarint();
+				Color color = in.readColor();
+				float size = in.readSize();
+				return Operation.shape(username, strokeId, readShape(in), color, size);
+			}
+			case TEXT: {
+				long strokeId = in.readVarint();
+				String string = in.readString();
+				int x = (int) in.readSignedVarint();
+				int y = (int) in.readSignedVarint();
+				Color color = in.readColor();
+				return Operation.text(username, strokeId, string, x, y, color, readFont(in));
+			}
+			case PREVIEW: {
+				int flags = in.readByte();
+				Color color = (flags & HAS_COLOR) != 0 ? in.readColor() : null;
+				Shape shape = null;
+				float size = 0;
+				if ((flags & HAS_SHAPE) != 0) {
+					size = in.readSize();
+					shape = readShape(in);
+				}
+				String string = null;
+				int x = 0, y = 0;
+				Font font = null;
+				if ((flags & HAS_TEXT) != 0) {
+					string = in.readString();
+					x = (int) in.readSignedVarint();
+					y = (int) in.readSignedVarint();
+					font = readFont(in);
+				}
+				return Operation.preview(username, shape, color, size, string, x, y, font);
+			}
+			case STROKE_BEGIN: {
+				long strokeId = in.readVarint();
+				Color color = in.readColor();
+				float size = in.readSize();
+				float[] start = in.readPoints();
+				return Operation.beginStroke(username, strokeId, color, size, start[0], start[1]);
+			}
+			case STROKE_APPEND: {
+				long strokeId = in.readVarint();
+				return Operation.appendPoints(username, strokeId, in.readPoints());
+			}
+			case STROKE_END:
+				return Operation.endStroke(username, in.readVarint());
+			case DELETE: {
+				long strokeId = in.readVarint();
+				int count = (int) in.readVarint();
+				List<Erasure> erasures = new ArrayList<>(count);
+				for (int i = 0; i < count; i++) {
+					String target = in.readString();
+					long targetId = in.readVarint();
+					int[] ranges = new int[(int) in.readVarint() * 2];
+					int previous = 0;
+					for (int r = 0; r < ranges.length; r++) {
+						previous += (int) in.readVarint();
+						ranges[r] = previous;
+					}
+					erasures.add(new Erasure(target, targetId, ranges));
+				}
+				return Operation.delete(username, strokeId, erasures);
+			}
+			default:
+				throw new IllegalArgumentException("Unknown operation type " + type);
+		}
+	}
+
+	private static void writeShape(Shape shape, Writer out) {
+		if (shape instanceof Line2D) {
+			Line2D line = (Line2D) shape;
+			out.writeByte(Action.LINE.ordinal());
+			out.writePoints(new float[] { (float) line.getX1(), (float) line.getY1(), (float) line.getX2(), (float) line.getY2() }, 4);
+			return;
+		}
+		if (shape instanceof Rectangle2D || shape instanceof Ellipse2D) {
+			Rectangle2D bounds = ((RectangularShape) shape).getFrame();
+			out.writeByte(shape instanceof Rectangle2D ? Action.RECTANGLE.ordinal() : Action.CIRCLE.ordinal());
+			out.writePoints(new float[] { (float) bounds.getX(), (float) bounds.getY(), (float) bounds.getMaxX(), (float) bounds.getMaxY() }, 4);
+			return;
+		}
+
+		// Flatten the path into segments to tell free draw strokes and triangles apart from anything else
+		PathIterator it = shape.getPathIterator(null);
+		int[] types = new int[16];
+		float[] coords = new float[32];
+		int segments = 0, length = 0;
+		float[] segment = new float[6];
+		while (!it.isDone()) {
+			int segmentType = it.currentSegment(segment);
+			int count = coordinateCount(segmentType);
+			if (segments == types.length) {
+				types = Arrays.copyOf(types, segments * 2);
+			}
+			if (length + count > coords.length) {
+				coords = Arrays.copyOf(coords, Math.max(coords.length * 2, length + count));
+			}
+			types[segments++] = segmentType;
+			System.arraycopy(segment, 0, coords, length, count);
+			length += count;
+			it.next();
+		}
+
+		boolean polyline = segments > 0 && types[0] == PathIterator.SEG_MOVETO;
+		for (int i = 1; i < segments && polyline; i++) {
+			polyline = types[i] == PathIterator.SEG_LINETO;
+		}
+		boolean triangle = segments == 4 && types[0] == PathIterator.SEG_MOVETO && types[1] == PathIterator.SEG_LINETO
+				&& types[2] == PathIterator.SEG_LINETO && types[3] == PathIterator.SEG_CLOSE;
+
+		if (triangle) {
+			out.writeByte(Action.TRIANGLE.ordinal());
+			out.writePoints(coords, 6);
+		} else if (polyline) {
+			out.writeByte(Action.FREEDRAW.ordinal());
+			out.writePoints(coords, length);
+		} else {
+			out.writeByte(PATH_TAG);
+			out.writeVarint(segments);
+			for (int i = 0; i < segments; i++) {
+				out.writeByte(types[i]);
+			}
+			out.writePoints(coords, length);
+		}
+	}
+
+	private static Shape readShape(Reader in) {
+		int tag = in.readByte();
+		if (tag == PATH_TAG) {
+			int segments = (int) in.readVarint();
+			int[] types = new int[segments];
+			for (int i = 0; i < segments; i++) {
+				types[i] = in.readByte();
+			}
+			float[] coords = in.readPoints();
+			Path2D.Double path = new Path2D.Double();
+			int c = 0;
+			for (int type : types) {
+				switch (type) {
+					case PathIterator.SEG_MOVETO:
+						path.moveTo(coords[c], coords[c + 1]);
+						break;
+					case PathIterator.SEG_LINETO:
+						path.lineTo(coords[c], coords[c + 1]);
+						break;
+					case PathIterator.SEG_QUADTO:
+						path.quadTo(coords[c], coords[c + 1], coords[c + 2], coords[c + 3]);
+						break;
+					case PathIterator.SEG_CUBICTO:
+						path.curveTo(coords[c], coords[c + 1], coords[c + 2], coords[c + 3], coords[c + 4], coords[c + 5]);
+						break;
+					case PathIterator.SEG_CLOSE:
+						path.closePath();
+						break;
+				}
+				c += coordinateCount(type);
+			}
+			return path;
+		}
+
+		float[] p = in.readPoints();
+		switch (Action.values()[tag]) {
+			case LINE:
+				return new Line2D.Float(p[0], p[1], p[2], p[3]);
+			case RECTANGLE:
+				return new Rectangle2D.Float(p[0], p[1], p[2] - p[0], p[3] - p[1]);
+			case CIRCLE:
+				return new Ellipse2D.Float(p[0], p[1], p[2] - p[0], p[3] - p[1]);
+			case TRIANGLE: {
+				Path2D.Double triangle = new Path2D.Double();
+				triangle.moveTo(p[0], p[1]);
+				triangle.lineTo(p[2], p[3]);
+				triangle.lineTo(p[4], p[5]);
+				triangle.closePath();
+				return triangle;
+			}
+			case FREEDRAW: {
+				Path2D.Double path = new Path2D.Double();
+				path.moveTo(p[0], p[1]);
+				for (int i = 2; i + 1 < p.length; i += 2) {
+					path.lineTo(p[i], p[i + 1]);
+				}
+				return path;
+			}
+			default:
+				throw new IllegalArgumentException("Unknown shape tag " + tag);
+		}
+	}
+
+	private static void writeFont(Font font, Writer out) {
+		int id = Arrays.asList(FONT_FAMILIES).indexOf(font.getName());
+		out.writeVarint(id + 1);
+		if (id < 0) {
+			out.writeString(font.getName());
+		}
+		out.writeByte(font.getStyle());
+		out.writeVarint(font.getSize());
+	}
+
+	private static Font readFont(Reader in) {
+		int id = (int) in.readVarint();
+		String name = id == 0 ? in.readString() : FONT_FAMILIES[id - 1];
+		int style = in.readByte();
+		return Styles.font(name, style, (int) in.readVarint());
+	}
+
+	private static int coordinateCount(int segmentType) {
+		switch (segmentType) {
+			case PathIterator.SEG_MOVETO:
+			case PathIterator.SEG_LINETO:
+				return 2;
+			case PathIterator.SEG_QUADTO:
+				return 4;
+			case PathIterator.SEG_CUBICTO:
+				return 6;
+			default:
+				return 0;
+		}
+	}
+
+	/**
+	 * Growable output buffer with the primitive encodings used by the codec
+	 */
+	private static class Writer {
+		private byte[] buffer = new byte[64];
+		private int length = 0;
+
+		void writeByte(int value) {
+			if (length == buffer.length) {
+				buffer = Arrays.copyOf(buffer, length * 2);
+			}
+			buffer[length++] = (byte) value;
+		}
+
+		void writeVarint(long value) {
+			while ((value & ~0x7FL) != 0) {
+				writeByte((int) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			writeByte((int) value);
+		}
+
+		void writeSignedVarint(long value) {
+			writeVarint((value << 1) ^ (value >> 63));
+		}
+
+		void writeColor(Color color) {
+			int argb = color.getRGB();
+			writeByte(argb >>> 24);
+			writeByte(argb >>> 16);
+			writeByte(argb >>> 8);
+			writeByte(argb);
+		}
+
+		void writeSize(float size) {
+			writeVarint(Math.round(size * 4));
+		}
+
+		void writeString(String string) {
+			byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			writeVarint(bytes.length);
+			for (byte b : bytes) {
+				writeByte(b);
+			}
+		}
+
+		/**
+		 * Writes x and y coordinates as the first point followed by the difference to each previous point
+		 */
+		void writePoints(float[] points, int count) {
+			writeVarint(count / 2);
+			long previousX = 0, previousY = 0;
+			for (int i = 0; i + 1 < count; i += 2) {
+				long x = Math.round(points[i] * QUANTUM);
+				long y = Math.round(points[i + 1] * QUANTUM);
+				writeSignedVarint(x - previousX);
+				writeSignedVarint(y - previousY);
+				previousX = x;
+				previousY = y;
+			}
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(buffer, length);
+		}
+	}
+
+	/**
+	 * Input over an encoded buffer, the reverse of {@link Writer}
+	 */
+	private static class Reader {
+		private final byte[] buffer;
+		private int position = 0;
+
+		Reader(byte[] buffer) {
+			this.buffer = buffer;
+		}
+
+		int readByte() {
+			return buffer[position++] & 0xFF;
+		}
+
+		long readVarint() {
+			long value = 0;
+			int shift = 0;
+			int b;
+			do {
+				b = readByte();
+				value |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			return value;
+		}
+
+		long readSignedVarint() {
+			long value = readVarint();
+			return (value >>> 1) ^ -(value & 1);
+		}
+
+		Color readColor() {
+			int argb = readByte() << 24 | readByte() << 16 | readByte() << 8 | readByte();
+			return new Color(argb, true);
+		}
+
+		float readSize() {
+			return readVarint() / 4f;
+		}
+
+		String readString() {
+			int length = (int) readVarint();
+			String string = new String(buffer, position, length, StandardCharsets.UTF_8);
+			position += length;
+			return string;
+		}
+
+		float[] readPoints() {
+			int count = (int) readVarint();
+			float[] points = new float[count * 2];
+			long x = 0, y = 0;
+			for (int i = 0; i < points.length; i += 2) {
+				x += readSignedVarint();
+				y += readSignedVarint();
+				points[i] = x / QUANTUM;
+				points[i + 1] = y / QUANTUM;
+			}
+			return points;
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package remote;
+
+/**
+ * What a peer's outbound queue does when it is full because the peer has fallen behind.
+ * Previews never wait or get a peer evicted, one there is no room for staying pending until there is.
+ * The event dispatch thread and the frame clock never wait either: whatever they have no room for is staged
+ * in order and an intake thread waits for room in their place, as the policy says.
+ *
+ * @author Si Yong Lim
+ */
+public enum OverflowPolicy {
+	/**
+	 * Throw away queued previews that a newer one from the same user replaces anyway to make room,
+	 * waiting like BLOCK if that is not enough
+	 */
+	DROP_PREVIEWS,
+
+	/**
+	 * Make the sender wait for room, evicting the peer if there is none within the call timeout
+	 */
+	BLOCK,
+
+	/**
+	 * Evict the peer straight away
+	 */
+	DISCONNECT
+}
@@ -0,0 +1,660 @@
+package remote;
+
+import java.awt.EventQueue;
+import java.io.ByteArrayOutputStream;
+import java.rmi.ConnectException;
+import java.rmi.ConnectIOException;
+import java.rmi.RemoteException;
+import java.rmi.UnknownHostException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Fans remote calls out to every peer in the session concurrently.
+ * Each peer has its own bounded, ordered queue drained by its own sender thread, so a slow peer
+ * never holds up the others while every peer still sees operations in the order they were sent.
+ * Callers only enqueue and return straight away, which keeps the network off the Swing event thread.
+ * When a peer falls far enough behind to fill its queue the {@link OverflowPolicy} decides what happens,
+ * though neither the event dispatch thread nor the frame clock is ever made to wait: whatever they have no room for
+ * is staged in order and queued by an intake thread that waits in their place. A preview is never
+ * thrown away unless a newer one from the same user is still to go out.
+ * A call is never started while the one before it is still going, so a call that times out is waited on
+ * rather than left behind. One that fails is only tried again if it never reached the peer or is a preview,
+ * so that nothing else is ever made twice. A peer whose call has timed out too many times in a row, or has
+ * failed for good, is evicted along with everything queued for it.
+ * Previews are coalesced per sender and flushed to every peer at a fixed frame rate,
+ * so preview traffic is bounded by the frame rate rather than by how fast the mouse moves. Previews a peer
+ * has no room for at the frame are left for that peer's sender to queue as soon as it has sent its next call.
+ * Calls queued for a peer within a short window of each other go out together in a single
+ * {@link IRemoteWhiteBoard#applyBatch} call, recorded as frames by {@link FramedPeer}.
+ *
+ * @author Si Yong Lim
+ */
+public class PeerDispatcher {
+	/**
+	 * A single remote call to be made on a peer
+	 */
+	public interface RemoteCall {
+		void invoke(IRemoteWhiteBoard peer) throws RemoteException;
+	}
+
+	/**
+	 * Notified when a peer is evicted after falling behind or repeatedly timing out
+	 */
+	public interface EvictionListener {
+		void evicted(String username);
+	}
+
+	// How often an idle sender checks whether it has been stopped
+	private static final long POLL_MILLIS = 100;
+
+	// Most calls sent in a single batch
+	private static final int MAX_BATCH = 256;
+
+	private final ConcurrentHashMap<String, PeerChannel> channels = new ConcurrentHashMap<>();
+	private final ExecutorService callExecutor = Executors.newCachedThreadPool(daemonThreads("whiteboard-call"));
+	private final ExecutorService intake = Executors.newCachedThreadPool(daemonThreads("whiteboard-intake"));
+	private final ScheduledExecutorService frameClock = Executors.newSingleThreadScheduledExecutor(daemonThreads("whiteboard-frame"));
+	private final long callTimeoutMillis;
+	private final int maxTimeouts;
+	private final int queueCapacity;
+	private final OverflowPolicy overflowPolicy;
+	private final EvictionListener listener;
+	private final boolean coalescing;
+	private final long batchWindowNanos;
+	private final List<Runnable> frameListeners = new CopyOnWriteArrayList<>();
+	private volatile Thread frameThread = null;
+
+	/**
+	 * Creates a dispatcher using the limits from {@link Settings}
+	 * @param listener notified when a peer is evicted
+	 */
+	public PeerDispatcher(EvictionListener listener) {
+		this(Settings.CALL_TIMEOUT_MILLIS, Settings.MAX_TIMEOUTS, Settings.QUEUE_CAPACITY, Settings.OVERFLOW_POLICY,
+				Settings.PREVIEW_RATE, Settings.BATCH_WINDOW_MILLIS, listener);
+	}
+
+	/**
+	 * Creates a dispatcher
+	 * @param callTimeoutMillis longest time a single call may take
+	 * @param maxTimeouts timeouts or failures of the same call before a peer is evicted
+	 * @param queueCapacity number of calls that may wait for a single peer
+	 * @param overflowPolicy what to do when a peer's queue is full
+	 * @param previewRate previews flushed per second, or 0 to send every preview straight away
+	 * @param batchWindowMillis how long to wait for more calls to send in the same batch, or 0 to send every call on its own
+	 * @param listener notified when a peer is evicted
+	 */
+	public PeerDispatcher(long callTimeoutMillis, int maxTimeouts, int queueCapacity, OverflowPolicy overflowPolicy,
+			int previewRate, long batchWindowMillis, EvictionListener listener) {
+		this.callTimeoutMillis = callTimeoutMillis;
+		this.maxTimeouts = maxTimeouts;
+		this.queueCapacity = queueCapacity;
+		this.overflowPolicy = overflowPolicy;
+		this.listener = listener;
+		this.coalescing = previewRate > 0;
+		this.batchWindowNanos = TimeUnit.MILLISECONDS.toNanos(batchWindowMillis);
+		frameClock.execute(() -> frameThread = Thread.currentThread());
+		if (coalescing) {
+			long period = 1_000_000L / previewRate;
+			frameClock.scheduleAtFixedRate(this::flushPreviews, period, period, TimeUnit.MICROSECONDS);
+		}
+	}
+
+	/**
+	 * Starts a sender for a new peer, replacing any previous one with the same username, such as when a peer
+	 * moves to another transport. Nothing goes out to the new session until everything already queued for the
+	 * previous one has been sent, so that calls keep their order across the switch.
+	 * @param username username of the peer
+	 * @param peer reference to the peer's session
+	 */
+	public void addPeer(String username, IRemoteWhiteBoard peer) {
+		PeerChannel channel = new PeerChannel(username, peer);
+		PeerChannel previous = channels.put(username, channel);
+		if (previous != null) {
+			previous.stop();
+		}
+		channel.start(previous);
+	}
+
+	/**
+	 * Stops the sender of a peer once everything already queued for it has been sent
+	 * @param username username of the peer
+	 */
+	public void removePeer(String username) {
+		PeerChannel channel = channels.remove(username);
+		if (channel != null) {
+			channel.stop();
+		}
+	}
+
+	/**
+	 * Queues a call for every peer
+	 * @param call call to be made
+	 */
+	public void broadcast(RemoteCall call) {
+		for (PeerChannel channel : channels.values()) {
+			channel.enqueue(new Task(call, null));
+		}
+	}
+
+	/**
+	 * Queues a preview for every peer. Only the latest preview of each sender is kept until the
+	 * next frame, or until there is room for it should a peer have fallen behind.
+	 * @param sender username of user the preview belongs to
+	 * @param call call to be made
+	 */
+	public void broadcastPreview(String sender, RemoteCall call) {
+		for (PeerChannel channel : channels.values()) {
+			channel.offerPreview(sender, call);
+		}
+	}
+	
+	/**
+	 * Queues a preview relayed for another user for every peer except that user,
+	 * coalescing it with the user's other previews in the same way as {@link #broadcastPreview}
+	 * @param sender username of user the preview belongs to
+	 * @param call call to be made
+	 */
+	public void broadcastPreviewExcept(String sender, RemoteCall call) {
+		for (PeerChannel channel : channels.values()) {
+			if (!channel.username.equals(sender)) {
+				channel.offerPreview(sender, call);
+			}
+		}
+	}
+	
+	/**
+	 * Registers something to be flushed at the start of every frame, before the previews go out
+	 * @param listener called once per frame on the frame clock's thread
+	 */
+	public void addFrameListener(Runnable listener) {
+		frameListeners.add(listener);
+	}
+	
+	/**
+	 * @return whether previews are held back until the next frame rather than sent straight away
+	 */
+	public boolean isCoalescing() {
+		return coalescing;
+	}
+	
+	/**
+	 * Moves the latest pending previews into every peer's queue, called once per frame.
+	 * Never waits, so that one peer falling behind does not hold up the frame for everyone else
+	 */
+	private void flushPreviews() {
+		for (Runnable listener : frameListeners) {
+			listener.run();
+		}
+		for (PeerChannel channel : channels.values()) {
+			channel.flushPreviews();
+		}
+	}
+
+	/**
+	 * Queues a call for every peer except one
+	 * @param excluded username of the peer to skip
+	 * @param call call to be made
+	 */
+	public void broadcastExcept(String excluded, RemoteCall call) {
+		for (PeerChannel channel : channels.values()) {
+			if (!channel.username.equals(excluded)) {
+				channel.enqueue(new Task(call, null));
+			}
+		}
+	}
+
+	/**
+	 * Queues a call for a single peer
+	 * @param username username of the peer
+	 * @param call call to be made
+	 */
+	public void send(String username, RemoteCall call) {
+		PeerChannel channel = channels.get(username);
+		if (channel != null) {
+			channel.enqueue(new Task(call, null));
+		}
+	}
+
+	/**
+	 * Stops every sender after its queue is drained, waiting at most the given time
+	 * @param timeoutMillis longest time to wait for the queues to drain
+	 */
+	public void close(long timeoutMillis) {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		for (String username : channels.keySet()) {
+			PeerChannel channel = channels.remove(username);
+			if (channel != null) {
+				channel.stop();
+				channel.await(deadline);
+			}
+		}
+		callExecutor.shutdownNow();
+		intake.shutdownNow();
+		frameClock.shutdownNow();
+	}
+
+	/**
+	 * Makes a call on the shared call pool, waiting for it however many times it times out, up to the limit,
+	 * so that the next call never overtakes it. A call that fails is only tried again if it never reached the
+	 * peer or making it twice does no harm, since one that failed on the way back may already have been made.
+	 * @param idempotent whether the call may safely be made more than once, such as a preview
+	 * @return whether the call went through, the peer having to be evicted if not
+	 */
+	private boolean invoke(IRemoteWhiteBoard peer, RemoteCall call, boolean idempotent) throws InterruptedException {
+		int strikes = 0;
+		Future<?> future = submit(peer, call);
+		while (true) {
+			try {
+				future.get(callTimeoutMillis, TimeUnit.MILLISECONDS);
+				return true;
+			} catch (TimeoutException e) {
+				// Still going, and cancelling does not stop a call blocked on the network
+				if (++strikes >= maxTimeouts) {
+					future.cancel(true);
+					return false;
+				}
+			} catch (ExecutionException e) {
+				// A refused connection, tried again after a pause while the peer gets a chance to recover
+				if (!(idempotent || neverSent(e.getCause())) || ++strikes >= maxTimeouts) {
+					return false;
+				}
+				Thread.sleep(POLL_MILLIS);
+				future = submit(peer, call);
+			}
+		}
+	}
+
+	/**
+	 * @return whether a call failed before any of it reached the peer, so that trying it again cannot make it twice
+	 */
+	private static boolean neverSent(Throwable failure) {
+		return failure instanceof ConnectException || failure instanceof ConnectIOException
+				|| failure instanceof UnknownHostException;
+	}
+
+	private Future<?> submit(IRemoteWhiteBoard peer, RemoteCall call) {
+		return callExecutor.submit(() -> {
+			call.invoke(peer);
+			return null;
+		});
+	}
+
+	private static ThreadFactory daemonThreads(String name) {
+		AtomicInteger count = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * A queued call and, for a preview, whose preview it is
+	 */
+	private static class Task {
+		final RemoteCall call;
+		final String sender;
+
+		Task(RemoteCall call, String sender) {
+			this.call = call;
+			this.sender = sender;
+		}
+
+		boolean isPreview() {
+			return sender != null;
+		}
+	}
+
+	/**
+	 * @return whether the current thread may be made to wait for room in a peer's queue,
+	 * which neither the event dispatch thread nor the frame clock may
+	 */
+	private boolean mayWait() {
+		return !EventQueue.isDispatchThread() && Thread.currentThread() != frameThread;
+	}
+
+	/**
+	 * Ordered queue of calls for a single peer and the thread sending them
+	 */
+	private class PeerChannel implements Runnable {
+		private final String username;
+		private final IRemoteWhiteBoard peer;
+		private final BlockingQueue<Task> queue = new ArrayBlockingQueue<>(queueCapacity);
+		private final PreviewCoalescer previews = new PreviewCoalescer();
+		private final LatencyStats latency;
+		private final Thread sender;
+		// Counts calls taken off the queue, for anyone waiting for room
+		private final Object room = new Object();
+		private long taken = 0;
+		// Whether previews were left pending for lack of room, to be queued by the sender
+		private volatile boolean due = false;
+		private volatile boolean stopped = false;
+		// Calls the event dispatch thread or the frame clock had no room for, in order, to be queued by the intake
+		private final ArrayDeque<Task> staged = new ArrayDeque<>();
+		private boolean staging = false;
+		// Channel this one replaced, still sending what was queued for it, or null once it has finished
+		private volatile PeerChannel previous;
+
+		PeerChannel(String username, IRemoteWhiteBoard peer) {
+			this.username = username;
+			this.peer = peer;
+			this.latency = new LatencyStats("to " + username, Settings.LATENCY_STATS);
+			this.sender = new Thread(this, "whiteboard-peer-" + username);
+			this.sender.setDaemon(true);
+		}
+
+		/**
+		 * Starts sending once the channel replaced, if any, has sent everything queued for it
+		 */
+		void start(PeerChannel previous) {
+			this.previous = previous;
+			sender.start();
+		}
+
+		/**
+		 * Queues a task behind any pending previews so that a preview never overtakes the shape that follows it.
+		 * If the peer has fallen too far behind to take it, whoever is sending waits for room outside the
+		 * channel's lock unless the policy rules out waiting, in which case the peer is evicted. A thread that
+		 * may not wait stages the task instead, for the intake to wait for room in its place.
+		 */
+		void enqueue(Task task) {
+			long seen;
+			synchronized (room) {
+				seen = taken;
+			}
+			if (tryEnqueue(task)) {
+				return;
+			}
+			if (overflowPolicy == OverflowPolicy.DISCONNECT) {
+				evict();
+			} else if (!mayWait()) {
+				stage(task);
+			} else {
+				waitForRoom(seen, true, () -> tryEnqueue(task));
+			}
+		}
+
+		/**
+		 * Waits until a task can be queued, evicting the peer if there is no room for it within the call timeout
+		 * @param seen calls taken off the queue when the last attempt was made
+		 * @param untilStopped whether to stop waiting once the channel is stopped, the task then being thrown away
+		 * @param attempt tries to queue the task, never waiting
+		 * @return whether the task was queued
+		 */
+		private boolean waitForRoom(long seen, boolean untilStopped, BooleanSupplier attempt) {
+			long deadline = System.currentTimeMillis() + callTimeoutMillis;
+			try {
+				while (true) {
+					synchronized (room) {
+						while (taken == seen && !(untilStopped && stopped)) {
+							long wait = deadline - System.currentTimeMillis();
+							if (wait <= 0) {
+								break;
+							}
+							room.wait(wait);
+						}
+						if (taken == seen && !(untilStopped && stopped)) {
+							break;
+						}
+						seen = taken;
+					}
+					if (attempt.getAsBoolean()) {
+						return true;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+			evict();
+			return false;
+		}
+
+		/**
+		 * Holds a task back behind any others staged, starting the intake if it is not already queuing them
+		 */
+		private synchronized void stage(Task task) {
+			staged.add(task);
+			if (!staging) {
+				staging = true;
+				intake.execute(this::drainStaged);
+			}
+		}
+
+		/**
+		 * Queues staged tasks in order on the intake's thread, waiting for room for each of them
+		 */
+		private void drainStaged() {
+			while (true) {
+				long seen;
+				synchronized (room) {
+					seen = taken;
+				}
+				synchronized (this) {
+					if (staged.isEmpty()) {
+						staging = false;
+						return;
+					}
+				}
+				if (!placeStaged() && !waitForRoom(seen, false, this::placeStaged)) {
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Queues pending previews and then the first staged task if there is room for all of them, never waiting.
+		 * Staged tasks still go out after the channel has been stopped, having been sent before it was.
+		 * @return whether the task was queued
+		 */
+		private synchronized boolean placeStaged() {
+			Task task = staged.peek();
+			if (task == null) {
+				return true;
+			}
+			boolean placed = placePreviews() && queue.offer(task);
+			if (!placed && overflowPolicy == OverflowPolicy.DROP_PREVIEWS && dropSuperseded()) {
+				placed = placePreviews() && queue.offer(task);
+			}
+			if (placed) {
+				staged.poll();
+			}
+			return placed;
+		}
+
+		private synchronized boolean hasStaged() {
+			return !staged.isEmpty();
+		}
+
+		/**
+		 * Holds a preview back as the latest one of its sender, straight away moving it into the queue
+		 * if previews are not coalesced
+		 */
+		void offerPreview(String sender, RemoteCall call) {
+			previews.offer(sender, call);
+			if (!coalescing) {
+				flushPreviews();
+			}
+		}
+
+		/**
+		 * Moves pending previews into the queue for as long as there is room, never waiting.
+		 * Any left over stay pending, to be replaced by newer ones in the meantime, until the sender has made room
+		 */
+		synchronized void flushPreviews() {
+			if (stopped) {
+				return;
+			}
+			boolean placed = placePreviews();
+			if (!placed && overflowPolicy == OverflowPolicy.DROP_PREVIEWS && dropSuperseded()) {
+				placed = placePreviews();
+			}
+			due = !placed;
+		}
+
+		/**
+		 * Queues pending previews and then a task if there is room for all of them and nothing is staged
+		 * ahead of it, never waiting
+		 * @return whether the task was queued, or thrown away since the channel has been stopped
+		 */
+		private synchronized boolean tryEnqueue(Task task) {
+			if (stopped) {
+				return true;
+			}
+			if (!staged.isEmpty()) {
+				return false;
+			}
+			if (placePreviews() && queue.offer(task)) {
+				return true;
+			}
+			return overflowPolicy == OverflowPolicy.DROP_PREVIEWS && dropSuperseded() && placePreviews() && queue.offer(task);
+		}
+
+		/**
+		 * @return whether every pending preview was queued
+		 */
+		private boolean placePreviews() {
+			return previews.drainTo((sender, call) -> queue.offer(new Task(call, sender)));
+		}
+
+		/**
+		 * Throws away queued previews that a newer preview from the same user, queued after them or still pending,
+		 * replaces anyway. The last preview of each user, such as one clearing it, always goes out
+		 * @return whether any were thrown away
+		 */
+		private boolean dropSuperseded() {
+			Map<String, Task> latest = new HashMap<>();
+			for (Task queued : queue) {
+				if (queued.isPreview()) {
+					latest.put(queued.sender, queued);
+				}
+			}
+			latest.values().removeIf(queued -> previews.isPending(queued.sender));
+			return queue.removeIf(queued -> queued.isPreview() && latest.get(queued.sender) != queued);
+		}
+
+		void stop() {
+			stopped = true;
+			previews.clear();
+			synchronized (room) {
+				room.notifyAll();
+			}
+		}
+
+		void await(long deadline) {
+			try {
+				sender.join(Math.max(1, deadline - System.currentTimeMillis()));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				if (previous != null) {
+					previous.sender.join();
+					previous = null;
+				}
+				// Keep sending after being stopped until everything queued so far is out
+				while (!stopped || !queue.isEmpty() || hasStaged()) {
+					Task task = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+					if (task == null) {
+						continue;
+					}
+					RemoteCall call = task.call;
+					boolean idempotent = task.isPreview();
+					if (batchWindowNanos > 0) {
+						List<Task> batch = gather(task);
+						if (batch.size() > 1) {
+							call = record(batch);
+							idempotent = batch.stream().allMatch(Task::isPreview);
+						}
+					}
+					synchronized (room) {
+						taken++;
+						room.notifyAll();
+					}
+					long start = System.nanoTime();
+					if (!invoke(peer, call, idempotent)) {
+						evict();
+						return;
+					}
+					latency.record(System.nanoTime() - start);
+					if (due) {
+						flushPreviews();
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/**
+		 * Takes whatever else is queued within the batch window of the first call
+		 */
+		private List<Task> gather(Task first) throws InterruptedException {
+			List<Task> batch = new ArrayList<>();
+			batch.add(first);
+			long deadline = System.nanoTime() + batchWindowNanos;
+			while (batch.size() < MAX_BATCH) {
+				long wait = deadline - System.nanoTime();
+				Task next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+				if (next == null) {
+					break;
+				}
+				batch.add(next);
+			}
+			return batch;
+		}
+
+		/**
+		 * Records calls as frames to be sent in a single call. Should any of them fail to be recorded,
+		 * the batch fails when it is made, the same way as a call that fails to go through.
+		 */
+		private RemoteCall record(List<Task> batch) {
+			ByteArrayOutputStream frames = new ByteArrayOutputStream();
+			FramedPeer recorder = new FramedPeer(username, frame -> frames.write(frame, 0, frame.length));
+			for (Task task : batch) {
+				try {
+					task.call.invoke(recorder);
+				} catch (RemoteException e) {
+					return peer -> {
+						throw e;
+					};
+				}
+			}
+			byte[] calls = frames.toByteArray();
+			return peer -> peer.applyBatch(calls);
+		}
+
+		private void evict() {
+			stop();
+			synchronized (this) {
+				staged.clear();
+			}
+			queue.clear();
+			if (channels.remove(username, this) && listener != null) {
+				listener.evicted(username);
+			}
+		}
+	}
+}
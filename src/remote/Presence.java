@@ -0,0 +1,83 @@
+package remote;
+
+/**
+ * What this user is doing, as shown next to their name on everyone else's user list.
+ * Only changes are sent: a status the same as the one last sent is never sent again, and a status
+ * is held back for a short while so that one flickering back and forth settles before it goes out.
+ * Anything else being sent takes a held back status along with it, since it then costs nothing extra.
+ * Someone joining is sent the status everyone else already has, however long ago it went out.
+ *
+ * @author Si Yong Lim
+ */
+public class Presence {
+	/**
+	 * Sends a status to everyone
+	 */
+	public interface Sink {
+		void send(Action action);
+	}
+
+	private final Sink sink;
+	private final long debounceNanos;
+	private Action sent = null;
+	private Action pending = null;
+	private boolean changed = false;
+	private long changedAt = 0;
+
+	/**
+	 * @param sink sends a status to everyone
+	 * @param debounceMillis how long a status is held back before it goes out on its own
+	 */
+	public Presence(Sink sink, long debounceMillis) {
+		this.sink = sink;
+		this.debounceNanos = debounceMillis * 1_000_000L;
+	}
+
+	/**
+	 * Changes the status
+	 * @param action what the user is doing, or null if idle
+	 */
+	public synchronized void set(Action action) {
+		if (action == sent) {
+			// Back to what everyone already has
+			changed = false;
+		} else if (!changed || action != pending) {
+			pending = action;
+			changed = true;
+			changedAt = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Sends the status if it has changed and has been held back long enough, called once per frame
+	 */
+	public void flush() {
+		flush(false);
+	}
+
+	/**
+	 * Sends the status straight away if it has changed, such as when something else is being sent anyway
+	 */
+	public void flushNow() {
+		flush(true);
+	}
+
+	/**
+	 * Sends the status everyone already has to someone who has just joined, unless idle
+	 * @param joiner sends a status to whoever has joined
+	 */
+	public synchronized void sendTo(Sink joiner) {
+		if (sent != null) {
+			joiner.send(sent);
+		}
+	}
+
+	private synchronized void flush(boolean now) {
+		if (!changed || (!now && System.nanoTime() - changedAt < debounceNanos)) {
+			return;
+		}
+		sent = pending;
+		changed = false;
+		sink.send(sent);
+	}
+}
@@ -0,0 +1,59 @@
+package remote;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiPredicate;
+
+/**
+ * Holds the previews waiting to go out to a single peer.
+ * Only the latest preview from each sender is kept, so however fast the mouse moves
+ * a peer receives at most one preview per sender every time the coalescer is drained.
+ * A preview there is no room for yet stays pending, so the last one of each sender is never lost.
+ *
+ * @author Si Yong Lim
+ */
+public class PreviewCoalescer {
+	private final LinkedHashMap<String, PeerDispatcher.RemoteCall> latest = new LinkedHashMap<>();
+
+	/**
+	 * Replaces the pending preview of a sender
+	 * @param sender username of user the preview belongs to
+	 * @param call call delivering the preview
+	 */
+	public synchronized void offer(String sender, PeerDispatcher.RemoteCall call) {
+		latest.put(sender, call);
+	}
+
+	/**
+	 * Hands pending previews on, oldest sender first, until one is not taken
+	 * @param taker takes a preview, returning false if there is no room for it
+	 * @return whether every pending preview was taken
+	 */
+	public synchronized boolean drainTo(BiPredicate<String, PeerDispatcher.RemoteCall> taker) {
+		Iterator<Map.Entry<String, PeerDispatcher.RemoteCall>> pending = latest.entrySet().iterator();
+		while (pending.hasNext()) {
+			Map.Entry<String, PeerDispatcher.RemoteCall> preview = pending.next();
+			if (!taker.test(preview.getKey(), preview.getValue())) {
+				return false;
+			}
+			pending.remove();
+		}
+		return true;
+	}
+
+	/**
+	 * @param sender username of user the preview belongs to
+	 * @return whether a preview of the sender is still to be handed on
+	 */
+	public synchronized boolean isPending(String sender) {
+		return latest.containsKey(sender);
+	}
+
+	/**
+	 * Throws away every pending preview
+	 */
+	public synchronized void clear() {
+		latest.clear();
+	}
+}
@@ -0,0 +1,133 @@
+package remote;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.image.BufferedImage;
+
+/**
+ * Another user's preview kept drawn in a small translucent raster of its own, so that repainting
+ * the white board only has to blit it. It is only drawn again after that user's preview changes.
+ * Each user keeps the same overlay while they are previewing, updated in place as previews arrive.
+ *
+ * @author Si Yong Lim
+ */
+@SuppressWarnings("exports")
+public class PreviewOverlay {
+	private final FullShape preview;
+	private BufferedImage raster = null;
+	private Rectangle bounds = null;
+	// Area changed by the last update, reused so that updating allocates nothing
+	private final Rectangle changed = new Rectangle();
+	private boolean valid = false;
+
+	/**
+	 * @param preview preview to be shown
+	 */
+	public PreviewOverlay(FullShape preview) {
+		this.preview = preview;
+	}
+
+	/**
+	 * @return the preview shown
+	 */
+	public FullShape getPreview() {
+		return preview;
+	}
+
+	/**
+	 * Replaces the preview shown, reusing this overlay and its raster
+	 * @param shape shape to be drawn
+	 * @param color color used
+	 * @param stroke stroke used
+	 * @param string string to be rendered
+	 * @param x x coordinate of text
+	 * @param y y coordinate of text
+	 * @param font font used
+	 * @return area covered by the old and new preview, which is reused by the next update, or null if there is none
+	 */
+	public Rectangle update(Shape shape, Color color, BasicStroke stroke, String string, int x, int y, Font font) {
+		if (bounds != null) {
+			changed.setBounds(bounds);
+		} else {
+			changed.setBounds(0, 0, -1, -1);
+		}
+		preview.setShape(shape);
+		preview.setColor(color);
+		preview.setStroke(stroke);
+		preview.setString(string);
+		preview.setX(x);
+		preview.setY(y);
+		preview.setFont(font);
+		valid = false;
+		Bounds.add(changed, preview);
+		return changed.width < 0 ? null : changed;
+	}
+
+	/**
+	 * @return area covered by the preview when it was last drawn, or null if it has not been drawn
+	 */
+	public Rectangle getBounds() {
+		return bounds;
+	}
+
+	/**
+	 * Marks the preview as changed so that it is drawn again before it is next painted
+	 */
+	public void invalidate() {
+		valid = false;
+	}
+
+	/**
+	 * Paints the preview, drawing it again first if it has changed
+	 * @param g2 graphics to paint on
+	 * @param clip area being painted, or null for everything
+	 */
+	public void paint(Graphics2D g2, Rectangle clip) {
+		Rectangle next = valid ? bounds : Bounds.of(preview);
+		if (next == null || next.isEmpty() || (clip != null && !clip.intersects(next))) {
+			return;
+		}
+		if (!valid) {
+			bounds = next;
+			render();
+		}
+		g2.drawImage(raster, bounds.x, bounds.y, null);
+	}
+
+	/**
+	 * Draws the preview into its raster, reusing the raster if it is already big enough
+	 */
+	private void render() {
+		Graphics2D g2;
+		if (raster == null || raster.getWidth() < bounds.width || raster.getHeight() < bounds.height) {
+			raster = new BufferedImage(bounds.width, bounds.height, BufferedImage.TYPE_INT_ARGB);
+			g2 = raster.createGraphics();
+		} else {
+			g2 = raster.createGraphics();
+			g2.setComposite(AlphaComposite.Clear);
+			g2.fillRect(0, 0, raster.getWidth(), raster.getHeight());
+			g2.setComposite(AlphaComposite.SrcOver);
+		}
+		g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g2.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+		g2.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+		g2.translate(-bounds.x, -bounds.y);
+
+		// Drawing shapes
+		if (preview.getStroke() != null) g2.setStroke(preview.getStroke());
+		if (preview.getColor() != null) g2.setColor(preview.getColor());
+		if (preview.getShape() != null) g2.draw(preview.getShape());
+
+		// Drawing text
+		if (preview.getFont() != null) g2.setFont(preview.getFont());
+		if (preview.getString() != null && preview.getX() != 0 && preview.getY() != 0) g2.drawString(preview.getString(), preview.getX(), preview.getY());
+		g2.dispose();
+		valid = true;
+	}
+}
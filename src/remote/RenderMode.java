@@ -0,0 +1,23 @@
+package remote;
+
+/**
+ * Where the drawing panels keep the committed white board for painting
+ *
+ * @author Si Yong Lim
+ */
+public enum RenderMode {
+	/**
+	 * Paint straight from the software raster the scene is drawn on
+	 */
+	SOFTWARE,
+
+	/**
+	 * Paint from a copy in an image compatible with the screen, which Java2D can cache in video memory
+	 */
+	COMPATIBLE,
+
+	/**
+	 * Paint from a copy in video memory, redrawn from the raster whenever its contents are lost
+	 */
+	VOLATILE
+}
@@ -0,0 +1,157 @@
+package remote;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.swing.JFrame;
+import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
+
+/**
+ * Applies drawing operations received from others in batches on a thread of its own, so that a burst
+ * of operations does not flood the event dispatch thread with one task each. Confirmed shapes, text
+ * and deletes are drawn onto the canvas straight from this thread, while previews, which belong to the GUI, are
+ * handed to the event dispatch thread as one task per batch. At most one batch is applied per frame.
+ *
+ * @author Si Yong Lim
+ */
+public class RenderWorker {
+	/**
+	 * Draws confirmed shapes and text, and deletes, onto the canvas, off the event dispatch thread
+	 */
+	public interface Committer {
+		void commitAll(List<Operation> operations);
+	}
+
+	/**
+	 * Applies a preview or stroke update on the event dispatch thread
+	 */
+	public interface Applier {
+		void apply(Operation operation);
+	}
+
+	// Most operations taken off the queue in one go
+	private static final int MAX_BATCH = 1024;
+
+	private final Committer committer;
+	private final Applier applier;
+	private final long frameNanos;
+	private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+
+	/**
+	 * @param committer draws confirmed shapes and text
+	 * @param applier applies previews and stroke updates
+	 * @param frameRate batches applied per second at most, or 0 to apply them as fast as they come
+	 */
+	public RenderWorker(Committer committer, Applier applier, int frameRate) {
+		this.committer = committer;
+		this.applier = applier;
+		this.frameNanos = frameRate > 0 ? TimeUnit.SECONDS.toNanos(1) / frameRate : 0;
+		Thread thread = new Thread(this::run, "whiteboard-render");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Queues an operation to be applied
+	 * @param operation operation received
+	 */
+	public void submit(Operation operation) {
+		queue.add(operation);
+	}
+
+	/**
+	 * Queues operations to be applied in order
+	 * @param operations operations received
+	 */
+	public void submitAll(List<Operation> operations) {
+		queue.addAll(operations);
+	}
+
+	/**
+	 * Runs a task on the event dispatch thread once everything queued before it has been applied,
+	 * holding back everything queued after it until the task is done
+	 * @param task task such as clearing or replacing the canvas
+	 */
+	public void execute(Runnable task) {
+		queue.add(task);
+	}
+
+	private void run() {
+		List<Object> batch = new ArrayList<>();
+		List<Operation> commits = new ArrayList<>();
+		List<Operation> updates = new ArrayList<>();
+		long nextFrame = System.nanoTime();
+		while (true) {
+			try {
+				// Waits out the rest of the frame so that whatever arrives meanwhile joins the next batch
+				long wait = nextFrame - System.nanoTime();
+				if (wait > 0) {
+					TimeUnit.NANOSECONDS.sleep(wait);
+				}
+				batch.add(queue.take());
+				queue.drainTo(batch, MAX_BATCH - 1);
+				nextFrame = System.nanoTime() + frameNanos;
+
+				for (Object item : batch) {
+					if (item instanceof Operation) {
+						Operation operation = (Operation) item;
+						if (operation.getType() == Operation.Type.SHAPE || operation.getType() == Operation.Type.TEXT
+								|| operation.getType() == Operation.Type.DELETE) {
+							commits.add(operation);
+						} else {
+							updates.add(operation);
+						}
+					} else {
+						flush(commits, updates, (Runnable) item);
+					}
+				}
+				flush(commits, updates, null);
+			} catch (InterruptedException e) {
+				return;
+			} catch (RuntimeException e) {
+				// A bad operation must not stop everything after it from being drawn
+				SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(new JFrame(), e, "Dialog", JOptionPane.ERROR_MESSAGE));
+				commits.clear();
+				updates.clear();
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+
+	/**
+	 * Applies the operations gathered so far, followed by a task if there is one
+	 */
+	private void flush(List<Operation> commits, List<Operation> updates, Runnable task) throws InterruptedException {
+		if (!commits.isEmpty()) {
+			committer.commitAll(commits);
+			commits.clear();
+		}
+		if (updates.isEmpty() && task == null) {
+			return;
+		}
+		List<Operation> pending = new ArrayList<>(updates);
+		updates.clear();
+		Runnable apply = () -> {
+			for (Operation operation : pending) {
+				applier.apply(operation);
+			}
+			if (task != null) {
+				task.run();
+			}
+		};
+		if (task == null) {
+			SwingUtilities.invokeLater(apply);
+		} else {
+			try {
+				SwingUtilities.invokeAndWait(apply);
+			} catch (InvocationTargetException e) {
+				SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(new JFrame(), e.getCause(), "Dialog", JOptionPane.ERROR_MESSAGE));
+			}
+		}
+	}
+}
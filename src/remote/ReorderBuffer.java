@@ -0,0 +1,113 @@
+package remote;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Releases items stamped with sequence numbers strictly in order, holding back any that arrive
+ * ahead of one still missing. Items older than the next one expected have already been applied,
+ * or are covered by an image of the white board, and are dropped. Nothing missing is ever skipped:
+ * should the gap not close before the buffer fills up or within a while, the buffer reports itself
+ * stalled so that everything after the last item released can be asked for again.
+ *
+ * @author Si Yong Lim
+ */
+public class ReorderBuffer<T> {
+	private final TreeMap<Long, T> held = new TreeMap<>();
+	private final int capacity;
+	private final long timeoutNanos;
+	private long next;
+	// When the gap holding items back opened, or -1 if nothing is held back
+	private long gapSince = -1;
+	// When everything after the last item released was last asked for again, or -1 if it has not been
+	private long askedAt = -1;
+	private boolean overflowed = false;
+
+	/**
+	 * @param capacity most items held back waiting for a missing one
+	 * @param timeoutMillis how long a gap may stay open before the buffer is stalled
+	 * @param last sequence number of the last item already applied
+	 */
+	public ReorderBuffer(int capacity, long timeoutMillis, long last) {
+		this.capacity = capacity;
+		this.timeoutNanos = timeoutMillis * 1_000_000L;
+		this.next = last + 1;
+	}
+
+	/**
+	 * Takes in an item. Should the buffer fill up, everything held back is let go of since it will
+	 * come again along with whatever is missing.
+	 * @param sequence sequence number of the item
+	 * @param item item received
+	 * @return the items that can now be applied, in order
+	 */
+	public synchronized List<T> offer(long sequence, T item) {
+		if (sequence < next) {
+			return List.of();
+		}
+		held.put(sequence, item);
+		List<T> released = release();
+		if (held.size() > capacity) {
+			held.clear();
+			overflowed = true;
+		}
+		return released;
+	}
+
+	/**
+	 * Moves on past everything up to a sequence number, such as when an image of the white board as of
+	 * that sequence number has been received
+	 * @param sequence sequence number now applied
+	 * @return the items held back that can now be applied, in order
+	 */
+	public synchronized List<T> reset(long sequence) {
+		next = sequence + 1;
+		held.headMap(next).clear();
+		overflowed = false;
+		askedAt = -1;
+		gapSince = -1;
+		return release();
+	}
+
+	/**
+	 * Checks whether the items missing are not coming, because the buffer filled up or the gap has been
+	 * open too long. Once it has said so it waits as long again for the items to come before saying so again.
+	 * @return whether everything after {@link #getLast()} should be asked for again
+	 */
+	public synchronized boolean isStalled() {
+		if (gapSince < 0) {
+			return false;
+		}
+		long now = System.nanoTime();
+		if (!overflowed && now - gapSince < timeoutNanos) {
+			return false;
+		}
+		if (askedAt >= 0 && now - askedAt < timeoutNanos) {
+			return false;
+		}
+		askedAt = now;
+		return true;
+	}
+
+	private List<T> release() {
+		List<T> released = new ArrayList<>();
+		while (!held.isEmpty() && held.firstKey() == next) {
+			released.add(held.pollFirstEntry().getValue());
+			next++;
+		}
+		if (held.isEmpty() && !overflowed) {
+			gapSince = -1;
+		} else if (gapSince < 0) {
+			gapSince = System.nanoTime();
+		}
+		return released;
+	}
+
+	/**
+	 * @return sequence number of the last item released
+	 */
+	public synchronized long getLast() {
+		return next - 1;
+	}
+}
@@ -0,0 +1,379 @@
+package remote;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.RenderingHints;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Vector model of the white board: an optional background canvas, the confirmed shapes and text on it,
+ * and a log of the operations appended since the log was last compacted, each given a sequence number.
+ * The drawing panels keep a raster of the scene for painting, but the scene itself is what
+ * gets replayed, saved and synchronised. Deletes are logged like anything else, and take
+ * what they erase off the white board and out of the index for good. Once most of the log is made up of
+ * deletes and of what has since been erased, the log is compacted, so that anyone catching up from before
+ * then is sent what is on the white board rather than everything that was ever drawn on it.
+ *
+ * @author Si Yong Lim
+ */
+public class SceneLog {
+	// Identifies a saved white board file
+	private static final int MAGIC = 0x57424433;
+
+	private final ArrayList<Operation> operations = new ArrayList<>();
+	private final SpatialIndex index = new SpatialIndex();
+	// Shapes and text on the white board by the user who drew them and their id
+	private final HashMap<String, LongObjectMap<Operation>> live = new HashMap<>();
+	// Area each delete in the log changed, so that it can be redrawn
+	private final IdentityHashMap<Operation, Rectangle> erased = new IdentityHashMap<>();
+	// Operations in the log that are no longer on the white board, deletes included
+	private int dead = 0;
+	private TiledCanvas background = null;
+	private long baseSequence = 0;
+
+	/**
+	 * What is on the white board at a point in time, taken with the scene held and written out later without it
+	 */
+	public static class Contents {
+		private final TiledCanvas background;
+		private final List<Operation> operations;
+
+		private Contents(TiledCanvas background, List<Operation> operations) {
+			this.background = background;
+			this.operations = operations;
+		}
+
+		/**
+		 * Writes the contents in the compact vector form of a saved white board file
+		 * @param out stream to write to
+		 */
+		public void write(OutputStream out) throws IOException {
+			DataOutputStream data = new DataOutputStream(out);
+			data.writeInt(MAGIC);
+			if (background != null) {
+				byte[] tiles = TileCodec.encode(background);
+				data.writeInt(tiles.length);
+				data.write(tiles);
+			} else {
+				data.writeInt(0);
+			}
+			byte[] encoded = OperationCodec.encodeAll(operations);
+			data.writeInt(encoded.length);
+			data.write(encoded);
+			data.flush();
+		}
+
+		/**
+		 * @return the contents as written by {@link #write(OutputStream)}
+		 */
+		public byte[] toByteArray() throws IOException {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			write(out);
+			return out.toByteArray();
+		}
+
+		/**
+		 * Reads contents written by {@link #write(OutputStream)}
+		 * @param in stream to read from
+		 * @return the contents read
+		 */
+		public static Contents read(InputStream in) throws IOException {
+			DataInputStream data = new DataInputStream(in);
+			if (data.readInt() != MAGIC) {
+				throw new IOException("Not a white board file");
+			}
+			TiledCanvas loaded = null;
+			int backgroundLength = data.readInt();
+			if (backgroundLength > 0) {
+				byte[] tiles = new byte[backgroundLength];
+				data.readFully(tiles);
+				loaded = TileCodec.decode(tiles, null);
+			}
+			int length = data.readInt();
+			if (length < 0) {
+				throw new IOException("Bad white board file");
+			}
+			byte[] encoded = new byte[length];
+			data.readFully(encoded);
+			return new Contents(loaded, OperationCodec.decodeAll(encoded));
+		}
+	}
+
+	/**
+	 * Appends a confirmed shape, text or delete to the log
+	 * @param operation operation to be appended
+	 * @return the sequence number given to the operation
+	 */
+	public synchronized long append(Operation operation) {
+		// Compacted ahead of appending rather than after, so that the area of the last operation can still be asked for
+		if (dead > operations.size() / 2) {
+			compact();
+		}
+		long sequence = baseSequence + operations.size() + 1;
+		operation.setSequence(sequence);
+		operations.add(operation);
+		if (operation.getType() == Operation.Type.DELETE) {
+			dead++;
+			erase(operation);
+		} else {
+			add(operation);
+		}
+		return sequence;
+	}
+
+	/**
+	 * Takes the shapes and text named by a delete off the white board, putting back the pieces kept of split strokes
+	 */
+	private void erase(Operation delete) {
+		Rectangle area = null;
+		long pieceId = delete.getStrokeId();
+		for (Erasure erasure : delete.getErasures()) {
+			LongObjectMap<Operation> drawn = live.get(erasure.getUsername());
+			Operation target = drawn != null ? drawn.remove(erasure.getStrokeId()) : null;
+			if (target == null) {
+				// Already gone, but its pieces keep their ids so that everyone numbers the rest alike
+				pieceId += erasure.getPieceCount();
+				continue;
+			}
+			index.remove(target);
+			if (isLogged(target)) {
+				dead++;
+			}
+			area = Bounds.union(area, Bounds.of(target));
+			for (Shape shape : erasure.pieces(target)) {
+				long id = pieceId++;
+				if (shape != null) {
+					Operation piece = Operation.shape(delete.getUsername(), id, shape, target.getColor(), target.getSize());
+					piece.setSequence(delete.getSequence());
+					add(piece);
+				}
+			}
+		}
+		erased.put(delete, area);
+	}
+
+	/**
+	 * @return whether an operation is itself in the log, rather than having been drawn before it was
+	 * last compacted or being a piece left by a delete
+	 */
+	private boolean isLogged(Operation operation) {
+		long position = operation.getSequence() - baseSequence - 1;
+		return position >= 0 && position < operations.size() && operations.get((int) position) == operation;
+	}
+
+	private void add(Operation operation) {
+		live.computeIfAbsent(operation.getUsername(), username -> new LongObjectMap<>()).put(operation.getStrokeId(), operation);
+		index.add(operation);
+	}
+
+	/**
+	 * Empties the log, keeping what is on the white board and the sequence number reached. Anyone who has seen
+	 * less than that has to be sent what is on the white board from then on.
+	 */
+	private void compact() {
+		baseSequence = getSequence();
+		operations.clear();
+		erased.clear();
+		dead = 0;
+	}
+
+	/**
+	 * @param operation operation just appended to the log
+	 * @return area of the white board it changed, or null if it changed nothing
+	 */
+	public synchronized Rectangle getArea(Operation operation) {
+		if (operation.getType() != Operation.Type.DELETE) {
+			return Bounds.of(operation);
+		}
+		return erased.get(operation);
+	}
+
+	/**
+	 * @return sequence number of the last operation appended, or of the last one cleared away
+	 */
+	public synchronized long getSequence() {
+		return baseSequence + operations.size();
+	}
+
+	/**
+	 * Gives the operations appended after the given sequence number
+	 * @param sequence last sequence number already known
+	 * @return the operations after it in order, or null if some of them have been cleared or compacted away
+	 */
+	public synchronized List<Operation> since(long sequence) {
+		if (sequence < baseSequence || sequence > getSequence()) {
+			return null;
+		}
+		return new ArrayList<>(operations.subList((int) (sequence - baseSequence), operations.size()));
+	}
+
+	/**
+	 * @return number of shapes and text on the white board
+	 */
+	public synchronized int size() {
+		return index.size();
+	}
+
+	/**
+	 * @return the background canvas, or null for a blank white board
+	 */
+	public synchronized TiledCanvas getBackground() {
+		return background;
+	}
+
+	/**
+	 * Takes what is on the white board, which is cheap since neither the background nor the operations change
+	 * @return the background and the shapes and text on it in the order they were drawn
+	 */
+	public synchronized Contents capture() {
+		return new Contents(background, index.getAll());
+	}
+
+	/**
+	 * Empties the log, keeping sequence numbers increasing so that older ones are never reused
+	 */
+	public synchronized void clear() {
+		if (!operations.isEmpty() || index.size() > 0 || background != null) {
+			reset(null);
+		}
+	}
+
+	/**
+	 * Empties the log and starts again from a background canvas. The reset takes up a sequence number
+	 * of its own so that anyone who has not seen it knows the operations they are missing are gone.
+	 * @param background canvas to draw on, which must not be changed afterwards, or null for a blank white board
+	 */
+	public synchronized void reset(TiledCanvas background) {
+		restore(new Contents(background, List.of()), getSequence() + 1);
+	}
+
+	/**
+	 * Replaces the scene with what was on someone else's white board as of a sequence number,
+	 * picking up the log from there
+	 * @param contents what is on the white board, whose background must not be changed afterwards
+	 * @param sequence sequence number the contents were taken at
+	 */
+	public synchronized void restore(Contents contents, long sequence) {
+		baseSequence = sequence;
+		operations.clear();
+		index.clear();
+		live.clear();
+		erased.clear();
+		dead = 0;
+		background = contents.background;
+		for (Operation operation : contents.operations) {
+			operation.setSequence(sequence);
+			add(operation);
+		}
+	}
+
+	/**
+	 * Draws the whole scene onto a blanked canvas, background first and then every shape and text in order
+	 * @param canvas canvas to draw on
+	 */
+	public synchronized void replay(TiledCanvas canvas) {
+		canvas.clear();
+		if (background != null) {
+			canvas.drawCanvas(background);
+		}
+		for (Operation operation : index.getAll()) {
+			canvas.render(operation);
+		}
+	}
+
+	/**
+	 * Draws part of the scene again onto a canvas that already has the rest of it, visiting only the
+	 * operations that touch that part. Whole tiles are redrawn so that strokes come out exactly as they
+	 * did when drawn in one go.
+	 * @param canvas canvas to draw on
+	 * @param area area to redraw
+	 */
+	public synchronized void replay(TiledCanvas canvas, Rectangle area) {
+		area = TiledCanvas.align(area);
+		canvas.clear(area);
+		if (background != null) {
+			canvas.drawCanvas(background, area);
+		}
+		for (Operation operation : index.query(area)) {
+			canvas.render(operation, area);
+		}
+	}
+
+	/**
+	 * Finds the confirmed shapes and text that may touch an area
+	 * @param area area to look in
+	 * @return the operations in the order they were drawn
+	 */
+	public synchronized List<Operation> query(Rectangle area) {
+		return index.query(area);
+	}
+
+	/**
+	 * Finds the confirmed shape or text on top at a point
+	 * @param x x coordinate of point
+	 * @param y y coordinate of point
+	 * @param radius how far from the point to look
+	 * @return the operation drawn last that passes within the distance, or null if there is none
+	 */
+	public synchronized Operation hitTest(double x, double y, double radius) {
+		return index.hitTest(x, y, radius);
+	}
+
+	/**
+	 * Draws a single confirmed shape or text
+	 * @param g2 graphics to draw on
+	 * @param operation operation to be drawn
+	 */
+	public static void render(Graphics2D g2, Operation operation) {
+		switch (operation.getType()) {
+			case SHAPE:
+				g2.setColor(operation.getColor());
+				g2.setStroke(Styles.stroke(operation.getSize()));
+				g2.draw(operation.getShape());
+				break;
+			case TEXT:
+				RenderingHints hints = g2.getRenderingHints();
+				g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+				g2.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+				g2.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+				g2.setColor(operation.getColor());
+				g2.setFont(operation.getFont());
+				g2.drawString(operation.getString(), operation.getX(), operation.getY());
+				g2.setRenderingHints(hints);
+				break;
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * Saves the scene in its compact vector form, keeping only what is on the white board
+	 * so that anything erased takes up no room
+	 * @param out stream to write to
+	 */
+	public void write(OutputStream out) throws IOException {
+		capture().write(out);
+	}
+
+	/**
+	 * Replaces the scene with one saved by {@link #write(OutputStream)}
+	 * @param in stream to read from
+	 */
+	public synchronized void read(InputStream in) throws IOException {
+		Contents contents = Contents.read(in);
+		reset(contents.background);
+		for (Operation operation : contents.operations) {
+			append(operation);
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package remote;
+
+import java.util.Arrays;
+
+/**
+ * Tunable settings shared between client and server.
+ * Every value can be overridden at startup with -D&lt;property&gt;=&lt;value&gt;
+ *
+ * @author Si Yong Lim
+ */
+public final class Settings {
+	/**
+	 * Longest time a single remote call to a peer may take before it counts as a timeout
+	 */
+	public static final long CALL_TIMEOUT_MILLIS = Long.getLong("whiteboard.callTimeout", 2000L);
+
+	/**
+	 * Number of times the same call to a peer may time out or fail before the peer is evicted from the session
+	 */
+	public static final int MAX_TIMEOUTS = Integer.getInteger("whiteboard.maxTimeouts", 3);
+
+	/**
+	 * Number of calls that may be waiting for a single peer before the overflow policy kicks in
+	 */
+	public static final int QUEUE_CAPACITY = Integer.getInteger("whiteboard.queueCapacity", 256);
+
+	/**
+	 * What to do when a peer's queue is full, one of DROP_PREVIEWS, BLOCK or DISCONNECT
+	 */
+	public static final OverflowPolicy OVERFLOW_POLICY = getEnum("whiteboard.overflowPolicy", OverflowPolicy.DROP_PREVIEWS);
+
+	/**
+	 * How many times a second pending previews are sent to each peer, or 0 to send every preview straight away
+	 */
+	public static final int PREVIEW_RATE = Integer.getInteger("whiteboard.previewRate", 60);
+
+	/**
+	 * How long a peer's sender waits for more calls to send along with the first one in a single batch,
+	 * or 0 to send every call on its own
+	 */
+	public static final long BATCH_WINDOW_MILLIS = Long.getLong("whiteboard.batchWindow", 5L);
+
+	/**
+	 * How long a change of what a user is doing is held back before it is sent on its own,
+	 * so that a status flickering back and forth goes out once
+	 */
+	public static final long PRESENCE_DEBOUNCE_MILLIS = Long.getLong("whiteboard.presenceDebounce", 150L);
+
+	/**
+	 * Sockets a white board is exported on when not given on the command line, one of DEFAULT, TUNED or COMPRESSED
+	 */
+	public static final Sockets SOCKETS = getEnum("whiteboard.sockets", Sockets.TUNED);
+
+	/**
+	 * Size of the send and receive buffers of tuned sockets in bytes, or 0 to leave them as the operating system sets them
+	 */
+	public static final int SOCKET_BUFFER_SIZE = Integer.getInteger("whiteboard.socketBuffer", 256 * 1024);
+
+	/**
+	 * Whether to print how long remote calls to each peer take, for comparing sockets and transports
+	 */
+	public static final boolean LATENCY_STATS = Boolean.getBoolean("whiteboard.latencyStats");
+
+	/**
+	 * Whether frames on the NIO transport are compressed. A client asks for it when joining and the server
+	 * agrees only if it is enabled there too
+	 */
+	public static final boolean COMPRESSION = Boolean.getBoolean("whiteboard.compression");
+
+	/**
+	 * Whether to print how much compressing frames saves and how long it takes
+	 */
+	public static final boolean COMPRESSION_STATS = Boolean.getBoolean("whiteboard.compressionStats");
+
+	/**
+	 * How many times a second operations received from others are drawn, or 0 to draw them as they come
+	 */
+	public static final int FRAME_RATE = Integer.getInteger("whiteboard.frameRate", 60);
+
+	/**
+	 * How users in a session reach each other, one of HUB or MESH. Only the manager's setting counts,
+	 * since it decides who each joining client is told to send to
+	 */
+	public static final Topology TOPOLOGY = getEnum("whiteboard.topology", Topology.HUB);
+
+	/**
+	 * Most operations a client holds back waiting for one the manager handed out before them
+	 */
+	public static final int REORDER_CAPACITY = Integer.getInteger("whiteboard.reorderCapacity", 64);
+
+	/**
+	 * Milliseconds a client waits for an operation the manager handed out, or for its own to come back,
+	 * before asking the manager to bring it up to date again
+	 */
+	public static final long REORDER_TIMEOUT_MILLIS = Long.getLong("whiteboard.reorderTimeout", 1000L);
+
+	/**
+	 * Most operations sent to bring a joining user up to date before a snapshot of the image is sent instead
+	 */
+	public static final int SYNC_MAX_OPERATIONS = Integer.getInteger("whiteboard.syncMaxOperations", 2000);
+
+	/**
+	 * Where the committed white board is kept for painting, one of SOFTWARE, COMPATIBLE or VOLATILE
+	 */
+	public static final RenderMode RENDER_MODE = getEnum("whiteboard.renderMode", RenderMode.VOLATILE);
+
+	/**
+	 * Whether to print how long the drawing panel takes to paint, for comparing render modes
+	 */
+	public static final boolean FRAME_STATS = Boolean.getBoolean("whiteboard.frameStats");
+
+	/**
+	 * Furthest a point of a freehand stroke may be moved when thinning it out, as a fraction of the stroke's width,
+	 * or 0 to keep every point
+	 */
+	public static final float SIMPLIFY_TOLERANCE = Float.parseFloat(System.getProperty("whiteboard.simplifyTolerance", "0.5"));
+
+	/**
+	 * Whether to smooth freehand strokes once thinned out
+	 */
+	public static final boolean SMOOTH_STROKES = Boolean.getBoolean("whiteboard.smoothStrokes");
+
+	/**
+	 * Whether to print how many points are taken out of freehand strokes
+	 */
+	public static final boolean STROKE_STATS = Boolean.getBoolean("whiteboard.strokeStats");
+
+	/**
+	 * Most pixels a white board saved as a JPG may have, larger drawings being scaled down to fit
+	 */
+	public static final long EXPORT_MAX_PIXELS = Long.getLong("whiteboard.exportMaxPixels", 16L * 1024 * 1024);
+
+	/**
+	 * Whether to print how often the server reuses an image of the white board already encoded
+	 */
+	public static final boolean SNAPSHOT_STATS = Boolean.getBoolean("whiteboard.snapshotStats");
+
+	private Settings() {
+	}
+
+	/**
+	 * Reads a setting that is one of a set of names, falling back to its default with a warning if mistyped
+	 */
+	private static <E extends Enum<E>> E getEnum(String property, E fallback) {
+		String value = System.getProperty(property);
+		if (value == null) {
+			return fallback;
+		}
+		try {
+			return Enum.valueOf(fallback.getDeclaringClass(), value.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			System.out.println("WARNING: " + property + " must be one of " + Arrays.toString(fallback.getDeclaringClass().getEnumConstants())
+					+ ", using " + fallback);
+			return fallback;
+		}
+	}
+}
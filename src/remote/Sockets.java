@@ -0,0 +1,25 @@
+package remote;
+
+/**
+ * Sockets a white board's remote object is exported on, picked at startup.
+ * The choice travels inside the stub, so whoever calls the white board connects the same way.
+ *
+ * @author Si Yong Lim
+ */
+public enum Sockets {
+	/**
+	 * RMI's own sockets, left as the operating system sets them up
+	 */
+	DEFAULT,
+
+	/**
+	 * Sockets with Nagle's algorithm turned off, keepalive turned on and larger buffers
+	 */
+	TUNED,
+
+	/**
+	 * Tuned sockets that also deflate everything written to them, which only pays off on a link slower
+	 * than it takes to deflate, large calls otherwise taking several times as long
+	 */
+	COMPRESSED
+}
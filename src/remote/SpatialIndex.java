@@ -0,0 +1,262 @@
+package remote;
+
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.Line2D;
+import java.awt.geom.PathIterator;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Grid over the confirmed shapes and text of a white board, keyed by the area each one
+ * touches once stroked. Finding what lies in an area only looks at the grid cells covering it, so
+ * it stays quick however many strokes the board holds. The grid has levels of ever larger cells, and
+ * each operation is kept in the finest level where it covers only a few cells, so that a long stroke
+ * neither fills thousands of cells nor has to be checked on every query. Erased operations are taken
+ * out of the grid straight away, so it only ever holds what is on the white board.
+ * Not thread safe: the scene guards it.
+ *
+ * @author Si Yong Lim
+ */
+@SuppressWarnings("exports")
+public class SpatialIndex {
+	public static final int CELL_SIZE = 256;
+
+	// Anything covering more cells than this in one level is kept in the next level up
+	private static final int MAX_CELLS = 64;
+
+	// How many times wider the cells of each level are than those of the level below
+	private static final int LEVEL_SCALE = 16;
+
+	private static final Comparator<Entry> BY_SEQUENCE = Comparator.<Entry>comparingLong(entry -> entry.operation.getSequence())
+			.thenComparingLong(entry -> entry.order);
+
+	// Cells of each level, from the finest
+	private final ArrayList<LongObjectMap<ArrayList<Entry>>> levels = new ArrayList<>();
+	// Every operation indexed, in the order it was added, which is the order they are drawn in
+	private final LinkedHashMap<Operation, Entry> entries = new LinkedHashMap<>();
+	private long added = 0;
+
+	/**
+	 * An operation along with the area it touches
+	 */
+	private static class Entry {
+		private final Operation operation;
+		private final Rectangle bounds;
+		// Pieces of a split stroke share a sequence number, so this keeps them in the order they were added
+		private final long order;
+		private final int level;
+
+		private Entry(Operation operation, Rectangle bounds, long order, int level) {
+			this.operation = operation;
+			this.bounds = bounds;
+			this.order = order;
+			this.level = level;
+		}
+	}
+
+	/**
+	 * Adds a confirmed shape or text, which must already have its sequence number
+	 * @param operation operation to be added
+	 */
+	public void add(Operation operation) {
+		Rectangle bounds = Bounds.of(operation);
+		if (bounds == null) {
+			return;
+		}
+		int level = 0;
+		long cellSize = CELL_SIZE;
+		while (cellCount(bounds, cellSize) > MAX_CELLS) {
+			level++;
+			cellSize *= LEVEL_SCALE;
+		}
+		while (levels.size() <= level) {
+			levels.add(new LongObjectMap<>());
+		}
+		Entry entry = new Entry(operation, bounds, added++, level);
+		entries.put(operation, entry);
+		LongObjectMap<ArrayList<Entry>> cells = levels.get(level);
+		int minX = (int) Math.floorDiv(bounds.x, cellSize);
+		int minY = (int) Math.floorDiv(bounds.y, cellSize);
+		int maxX = (int) Math.floorDiv((long) bounds.x + bounds.width, cellSize);
+		int maxY = (int) Math.floorDiv((long) bounds.y + bounds.height, cellSize);
+		for (int cy = minY; cy <= maxY; cy++) {
+			for (int cx = minX; cx <= maxX; cx++) {
+				long key = TiledCanvas.key(cx, cy);
+				ArrayList<Entry> cell = cells.get(key);
+				if (cell == null) {
+					cell = new ArrayList<>();
+					cells.put(key, cell);
+				}
+				cell.add(entry);
+			}
+		}
+	}
+
+	/**
+	 * Takes an erased operation out of the grid, dropping any cell left empty
+	 * @param operation operation erased
+	 */
+	public void remove(Operation operation) {
+		Entry entry = entries.remove(operation);
+		if (entry == null) {
+			return;
+		}
+		long cellSize = CELL_SIZE;
+		for (int i = 0; i < entry.level; i++) {
+			cellSize *= LEVEL_SCALE;
+		}
+		LongObjectMap<ArrayList<Entry>> cells = levels.get(entry.level);
+		int minX = (int) Math.floorDiv(entry.bounds.x, cellSize);
+		int minY = (int) Math.floorDiv(entry.bounds.y, cellSize);
+		int maxX = (int) Math.floorDiv((long) entry.bounds.x + entry.bounds.width, cellSize);
+		int maxY = (int) Math.floorDiv((long) entry.bounds.y + entry.bounds.height, cellSize);
+		for (int cy = minY; cy <= maxY; cy++) {
+			for (int cx = minX; cx <= maxX; cx++) {
+				long key = TiledCanvas.key(cx, cy);
+				ArrayList<Entry> cell = cells.get(key);
+				if (cell != null && cell.remove(entry) && cell.isEmpty()) {
+					cells.remove(key);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes everything
+	 */
+	public void clear() {
+		levels.clear();
+		entries.clear();
+	}
+
+	/**
+	 * @return number of operations indexed
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return every operation indexed, in the order they were drawn
+	 */
+	public List<Operation> getAll() {
+		return new ArrayList<>(entries.keySet());
+	}
+
+	/**
+	 * Finds the operations on the white board whose drawing may touch an area
+	 * @param area area to look in
+	 * @return the operations in the order they were drawn
+	 */
+	public List<Operation> query(Rectangle area) {
+		List<Entry> found = new ArrayList<>();
+		long cellSize = CELL_SIZE;
+		for (LongObjectMap<ArrayList<Entry>> cells : levels) {
+			if (cellCount(area, cellSize) > cells.size()) {
+				// Fewer cells are in use than the area covers, so each of them is looked at instead
+				for (long key : cells.keys()) {
+					collect(cells.get(key), area, found);
+				}
+			} else {
+				int minX = (int) Math.floorDiv(area.x, cellSize);
+				int minY = (int) Math.floorDiv(area.y, cellSize);
+				int maxX = (int) Math.floorDiv((long) area.x + area.width, cellSize);
+				int maxY = (int) Math.floorDiv((long) area.y + area.height, cellSize);
+				for (int cy = minY; cy <= maxY; cy++) {
+					for (int cx = minX; cx <= maxX; cx++) {
+						ArrayList<Entry> cell = cells.get(TiledCanvas.key(cx, cy));
+						if (cell != null) {
+							collect(cell, area, found);
+						}
+					}
+				}
+			}
+			cellSize *= LEVEL_SCALE;
+		}
+		found.sort(BY_SEQUENCE);
+		List<Operation> operations = new ArrayList<>(found.size());
+		Entry last = null;
+		for (Entry entry : found) {
+			// An entry spanning several cells is found once in each of them
+			if (entry != last) {
+				operations.add(entry.operation);
+			}
+			last = entry;
+		}
+		return operations;
+	}
+
+	/**
+	 * Finds the operation drawn last whose stroke or text passes within a distance of a point
+	 * @param x x coordinate of point
+	 * @param y y coordinate of point
+	 * @param radius how far from the point to look
+	 * @return the operation, or null if there is none
+	 */
+	public Operation hitTest(double x, double y, double radius) {
+		int r = (int) Math.ceil(radius);
+		List<Operation> candidates = query(new Rectangle((int) Math.floor(x) - r, (int) Math.floor(y) - r, 2 * r + 1, 2 * r + 1));
+		for (int i = candidates.size() - 1; i >= 0; i--) {
+			Operation operation = candidates.get(i);
+			if (operation.getShape() != null) {
+				if (distance(operation.getShape(), x, y) <= radius + operation.getSize() / 2) {
+					return operation;
+				}
+			} else if (Bounds.of(operation).contains(x, y)) {
+				return operation;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return number of cells of the given size an area covers
+	 */
+	private static long cellCount(Rectangle area, long cellSize) {
+		long columns = Math.floorDiv((long) area.x + area.width, cellSize) - Math.floorDiv(area.x, cellSize) + 1;
+		long rows = Math.floorDiv((long) area.y + area.height, cellSize) - Math.floorDiv(area.y, cellSize) + 1;
+		return columns * rows;
+	}
+
+	private static void collect(List<Entry> entries, Rectangle area, List<Entry> found) {
+		for (Entry entry : entries) {
+			if (entry.bounds.intersects(area)) {
+				found.add(entry);
+			}
+		}
+	}
+
+	/**
+	 * @return shortest distance from a point to the outline of a shape
+	 */
+	private static double distance(Shape shape, double x, double y) {
+		double best = Double.POSITIVE_INFINITY;
+		double[] coords = new double[6];
+		double startX = 0, startY = 0, lastX = 0, lastY = 0;
+		for (PathIterator it = shape.getPathIterator(null, 1.0); !it.isDone(); it.next()) {
+			switch (it.currentSegment(coords)) {
+				case PathIterator.SEG_MOVETO:
+					startX = lastX = coords[0];
+					startY = lastY = coords[1];
+					best = Math.min(best, Math.hypot(x - lastX, y - lastY));
+					break;
+				case PathIterator.SEG_LINETO:
+					best = Math.min(best, Line2D.ptSegDist(lastX, lastY, coords[0], coords[1], x, y));
+					lastX = coords[0];
+					lastY = coords[1];
+					break;
+				case PathIterator.SEG_CLOSE:
+					best = Math.min(best, Line2D.ptSegDist(lastX, lastY, startX, startY, x, y));
+					lastX = startX;
+					lastY = startY;
+					break;
+				default:
+					break;
+			}
+		}
+		return best;
+	}
+}
@@ -0,0 +1,66 @@
+package remote;
+
+import java.util.Arrays;
+
+/**
+ * Collects the points of the freehand stroke being drawn by this user until they are sent.
+ * Only points added since the last flush go out, so each flush ships a small delta
+ * instead of the whole path drawn so far.
+ *
+ * @author Si Yong Lim
+ */
+public class StrokeBuffer {
+	/**
+	 * Receives the points collected since the last flush
+	 */
+	public interface Sink {
+		void send(long strokeId, float[] points);
+	}
+
+	private final Sink sink;
+	private long strokeId = 0;
+	private float[] points = new float[64];
+	private int size = 0;
+
+	/**
+	 * Creates a buffer
+	 * @param sink where flushed points are sent
+	 */
+	public StrokeBuffer(Sink sink) {
+		this.sink = sink;
+	}
+
+	/**
+	 * Starts collecting points for a new stroke, flushing any left over from the previous one
+	 * @param strokeId id of the new stroke
+	 */
+	public synchronized void begin(long strokeId) {
+		flush();
+		this.strokeId = strokeId;
+	}
+
+	/**
+	 * Adds a point to the current stroke
+	 * @param x x coordinate of point
+	 * @param y y coordinate of point
+	 */
+	public synchronized void add(float x, float y) {
+		if (size + 2 > points.length) {
+			points = Arrays.copyOf(points, points.length * 2);
+		}
+		points[size++] = x;
+		points[size++] = y;
+	}
+
+	/**
+	 * Sends every point collected since the last flush, in the order they were added
+	 */
+	public synchronized void flush() {
+		if (size == 0) {
+			return;
+		}
+		float[] delta = Arrays.copyOf(points, size);
+		size = 0;
+		sink.send(strokeId, delta);
+	}
+}
@@ -0,0 +1,158 @@
+package remote;
+
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.Line2D;
+import java.awt.geom.PathIterator;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Works out what a swipe of the stroke eraser takes off the white board. Freehand strokes are split
+ * around the parts the eraser passes over, while any other shape or text it touches is erased whole.
+ *
+ * @author Si Yong Lim
+ */
+public final class StrokeEraser {
+	private StrokeEraser() {
+	}
+
+	/**
+	 * @param size size picked for drawing
+	 * @return how far from its path the eraser reaches
+	 */
+	public static float radius(float size) {
+		return size * 2 + 2;
+	}
+
+	/**
+	 * Finds what a swipe of the eraser touches
+	 * @param scene scene being erased
+	 * @param path points the eraser passed through as x and y coordinates one after the other
+	 * @param radius how far from its path the eraser reaches
+	 * @return an erasure for every shape or text touched, in the order they were drawn
+	 */
+	public static List<Erasure> erase(SceneLog scene, float[] path, float radius) {
+		List<Erasure> erasures = new ArrayList<>();
+		if (path == null || path.length < 2) {
+			return erasures;
+		}
+		float minX = path[0], minY = path[1], maxX = minX, maxY = minY;
+		for (int i = 2; i + 1 < path.length; i += 2) {
+			minX = Math.min(minX, path[i]);
+			minY = Math.min(minY, path[i + 1]);
+			maxX = Math.max(maxX, path[i]);
+			maxY = Math.max(maxY, path[i + 1]);
+		}
+		for (Operation target : scene.query(Bounds.of(minX, minY, maxX, maxY, radius))) {
+			Erasure erasure = erase(target, path, radius);
+			if (erasure != null) {
+				erasures.add(erasure);
+			}
+		}
+		return erasures;
+	}
+
+	/**
+	 * @return what the eraser takes off a shape or text, or null if it does not touch it
+	 */
+	private static Erasure erase(Operation target, float[] path, float radius) {
+		if (target.getShape() == null) {
+			Rectangle bounds = Bounds.of(target);
+			bounds.grow((int) Math.ceil(radius), (int) Math.ceil(radius));
+			for (int i = 0; i == 0 || i + 3 < path.length; i += 2) {
+				int j = i + 3 < path.length ? i + 2 : i;
+				if (bounds.intersectsLine(path[i], path[i + 1], path[j], path[j + 1])) {
+					return Erasure.whole(target);
+				}
+			}
+			return null;
+		}
+		float reach = radius + target.getSize() / 2;
+		float[] points = Erasure.points(target.getShape());
+		if (points == null) {
+			return touches(target.getShape(), path, reach) ? Erasure.whole(target) : null;
+		}
+
+		// Splits the stroke at every point and segment the eraser passes over
+		int count = points.length / 2;
+		boolean touched = false;
+		List<Integer> ranges = new ArrayList<>();
+		int start = -1;
+		for (int p = 0; p < count; p++) {
+			boolean erased = distance(points, p, p, path) <= reach;
+			touched |= erased;
+			if (!erased && start < 0) {
+				start = p;
+			}
+			boolean cut = erased || p + 1 == count || distance(points, p, p + 1, path) <= reach;
+			touched |= cut && p + 1 < count;
+			if (cut && start >= 0) {
+				// A run of a single point draws nothing
+				if (!erased && p > start) {
+					ranges.add(start);
+					ranges.add(p + 1);
+				}
+				start = -1;
+			}
+		}
+		if (!touched) {
+			return null;
+		}
+		int[] kept = new int[ranges.size()];
+		for (int i = 0; i < kept.length; i++) {
+			kept[i] = ranges.get(i);
+		}
+		return new Erasure(target.getUsername(), target.getStrokeId(), kept);
+	}
+
+	/**
+	 * @return whether the outline of a shape passes within a distance of the eraser's path
+	 */
+	private static boolean touches(Shape shape, float[] path, float reach) {
+		float[] segment = new float[4];
+		float[] coords = new float[6];
+		float startX = 0, startY = 0, lastX = 0, lastY = 0;
+		for (PathIterator it = shape.getPathIterator(null, 1.0); !it.isDone(); it.next()) {
+			int type = it.currentSegment(coords);
+			if (type == PathIterator.SEG_MOVETO) {
+				startX = lastX = coords[0];
+				startY = lastY = coords[1];
+				continue;
+			}
+			float x = type == PathIterator.SEG_CLOSE ? startX : coords[0];
+			float y = type == PathIterator.SEG_CLOSE ? startY : coords[1];
+			segment[0] = lastX;
+			segment[1] = lastY;
+			segment[2] = x;
+			segment[3] = y;
+			if (distance(segment, 0, 1, path) <= reach) {
+				return true;
+			}
+			lastX = x;
+			lastY = y;
+		}
+		return false;
+	}
+
+	/**
+	 * @return shortest distance between a segment running from one point to another and the eraser's path
+	 */
+	private static double distance(float[] points, int from, int to, float[] path) {
+		double x1 = points[from * 2], y1 = points[from * 2 + 1], x2 = points[to * 2], y2 = points[to * 2 + 1];
+		double best = Double.POSITIVE_INFINITY;
+		// A path of a single point is a segment of no length
+		for (int i = 0; i == 0 || i + 3 < path.length; i += 2) {
+			int j = i + 3 < path.length ? i + 2 : i;
+			double x3 = path[i], y3 = path[i + 1], x4 = path[j], y4 = path[j + 1];
+			// Crossing only means something between two segments of some length
+			if (from != to && i != j && Line2D.linesIntersect(x1, y1, x2, y2, x3, y3, x4, y4)) {
+				return 0;
+			}
+			best = Math.min(best, Math.min(
+					Math.min(Line2D.ptSegDist(x1, y1, x2, y2, x3, y3), Line2D.ptSegDist(x1, y1, x2, y2, x4, y4)),
+					Math.min(Line2D.ptSegDist(x3, y3, x4, y4, x1, y1), Line2D.ptSegDist(x3, y3, x4, y4, x2, y2))));
+		}
+		return best;
+	}
+}
@@ -0,0 +1,203 @@
+package remote;
+
+import java.awt.geom.Path2D;
+import java.util.Arrays;
+
+/**
+ * Thins out the points of a finished freehand stroke before it is sent and stored. A stroke gets a
+ * point for every mouse event, most of them lying almost on a straight line between their neighbours,
+ * so points closer than a tolerance to the previous one are dropped first and the rest are simplified
+ * with the Ramer-Douglas-Peucker algorithm. The tolerance grows with the width of the stroke, since a
+ * wider stroke hides more. The stroke can then be smoothed by cutting its corners.
+ * Keeps count of how many points it removes, printing a summary every so many strokes when enabled.
+ *
+ * @author Si Yong Lim
+ */
+public class StrokeSimplifier {
+	// Number of strokes summarised in each report
+	private static final int REPORT_STROKES = 50;
+
+	private final float tolerance;
+	private final boolean smooth;
+	private final boolean report;
+	private long strokes = 0;
+	private long pointsIn = 0;
+	private long pointsOut = 0;
+	private long totalNanos = 0;
+
+	/**
+	 * @param tolerance furthest a point may be moved, as a fraction of the stroke's width, or 0 to keep every point
+	 * @param smooth whether to smooth the stroke once simplified
+	 * @param report whether to print a summary every so many strokes
+	 */
+	public StrokeSimplifier(float tolerance, boolean smooth, boolean report) {
+		this.tolerance = tolerance;
+		this.smooth = smooth;
+		this.report = report;
+	}
+
+	/**
+	 * Simplifies a freehand stroke
+	 * @param path stroke made of straight segments
+	 * @param width width of the stroke
+	 * @return the simplified stroke, or the stroke itself if it is left as it is
+	 */
+	public Path2D.Double simplify(Path2D.Double path, float width) {
+		float[] points = Erasure.points(path);
+		if (points == null || points.length < 6 || (tolerance <= 0 && !smooth)) {
+			return path;
+		}
+		long start = System.nanoTime();
+		float[] simplified = points;
+		if (tolerance > 0) {
+			float epsilon = Math.max(tolerance * width, 0.25f);
+			simplified = douglasPeucker(radial(points, epsilon), epsilon);
+		}
+		if (smooth) {
+			simplified = chaikin(simplified);
+		}
+		Path2D.Double result = new Path2D.Double(Path2D.WIND_NON_ZERO, simplified.length / 2);
+		result.moveTo(simplified[0], simplified[1]);
+		for (int i = 2; i + 1 < simplified.length; i += 2) {
+			result.lineTo(simplified[i], simplified[i + 1]);
+		}
+		record(points.length / 2, simplified.length / 2, System.nanoTime() - start);
+		return result;
+	}
+
+	/**
+	 * Drops every point closer than a distance to the last point kept, always keeping the last point
+	 */
+	private static float[] radial(float[] points, float distance) {
+		float[] kept = new float[points.length];
+		kept[0] = points[0];
+		kept[1] = points[1];
+		int length = 2;
+		double squared = (double) distance * distance;
+		int last = points.length - 2;
+		for (int i = 2; i < last; i += 2) {
+			double dx = points[i] - kept[length - 2], dy = points[i + 1] - kept[length - 1];
+			if (dx * dx + dy * dy > squared) {
+				kept[length++] = points[i];
+				kept[length++] = points[i + 1];
+			}
+		}
+		kept[length++] = points[last];
+		kept[length++] = points[last + 1];
+		return Arrays.copyOf(kept, length);
+	}
+
+	/**
+	 * Keeps only the points needed for no point to be further than a distance from the simplified line,
+	 * working through the spans with a stack rather than by recursion so that long strokes cannot overflow
+	 */
+	private static float[] douglasPeucker(float[] points, float distance) {
+		int count = points.length / 2;
+		if (count < 3) {
+			return points;
+		}
+		boolean[] keep = new boolean[count];
+		keep[0] = true;
+		keep[count - 1] = true;
+		int[] stack = new int[count * 2];
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = count - 1;
+		while (top > 0) {
+			int last = stack[--top];
+			int first = stack[--top];
+			double ax = points[first * 2], ay = points[first * 2 + 1];
+			double bx = points[last * 2], by = points[last * 2 + 1];
+			double dx = bx - ax, dy = by - ay;
+			double length = dx * dx + dy * dy;
+			double furthest = -1;
+			int index = -1;
+			for (int i = first + 1; i < last; i++) {
+				double px = points[i * 2] - ax, py = points[i * 2 + 1] - ay;
+				double d;
+				if (length == 0) {
+					d = px * px + py * py;
+				} else {
+					// Squared distance to the segment, so that points past either end are measured to that end
+					double t = Math.max(0, Math.min(1, (px * dx + py * dy) / length));
+					double ex = px - t * dx, ey = py - t * dy;
+					d = ex * ex + ey * ey;
+				}
+				if (d > furthest) {
+					furthest = d;
+					index = i;
+				}
+			}
+			if (index >= 0 && furthest > (double) distance * distance) {
+				keep[index] = true;
+				stack[top++] = first;
+				stack[top++] = index;
+				stack[top++] = index;
+				stack[top++] = last;
+			}
+		}
+		float[] kept = new float[points.length];
+		int length = 0;
+		for (int i = 0; i < count; i++) {
+			if (keep[i]) {
+				kept[length++] = points[i * 2];
+				kept[length++] = points[i * 2 + 1];
+			}
+		}
+		return Arrays.copyOf(kept, length);
+	}
+
+	/**
+	 * Smooths a line by cutting every corner a quarter of the way along each segment, keeping both ends
+	 */
+	private static float[] chaikin(float[] points) {
+		int count = points.length / 2;
+		if (count < 3) {
+			return points;
+		}
+		float[] smoothed = new float[(count - 1) * 4 + 4];
+		int length = 0;
+		smoothed[length++] = points[0];
+		smoothed[length++] = points[1];
+		for (int i = 0; i + 1 < count; i++) {
+			float ax = points[i * 2], ay = points[i * 2 + 1], bx = points[i * 2 + 2], by = points[i * 2 + 3];
+			smoothed[length++] = 0.75f * ax + 0.25f * bx;
+			smoothed[length++] = 0.75f * ay + 0.25f * by;
+			smoothed[length++] = 0.25f * ax + 0.75f * bx;
+			smoothed[length++] = 0.25f * ay + 0.75f * by;
+		}
+		smoothed[length++] = points[points.length - 2];
+		smoothed[length++] = points[points.length - 1];
+		return Arrays.copyOf(smoothed, length);
+	}
+
+	private synchronized void record(int before, int after, long nanos) {
+		strokes++;
+		pointsIn += before;
+		pointsOut += after;
+		totalNanos += nanos;
+		if (report && strokes % REPORT_STROKES == 0) {
+			System.out.println(this);
+		}
+	}
+
+	/**
+	 * @return points kept out of every point given, across all strokes simplified
+	 */
+	public synchronized double getReductionRatio() {
+		return pointsIn == 0 ? 1 : (double) pointsOut / pointsIn;
+	}
+
+	/**
+	 * @return number of strokes simplified
+	 */
+	public synchronized long getStrokes() {
+		return strokes;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("Strokes simplified: %d, points %d -> %d (%.1f%% kept), average %.3f ms",
+				strokes, pointsIn, pointsOut, getReductionRatio() * 100, strokes == 0 ? 0 : totalNanos / 1e6 / strokes);
+	}
+}
@@ -0,0 +1,68 @@
+package remote;
+
+import java.awt.BasicStroke;
+import java.awt.Font;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Shared strokes and fonts, so that drawing at a size already seen does not create new ones.
+ * Both are immutable, so the same instance can be used by everyone.
+ *
+ * @author Si Yong Lim
+ */
+@SuppressWarnings("exports")
+public final class Styles {
+	// Strokes are cached in quarter pixel steps, the precision sizes are sent over the wire with
+	private static final int STROKE_STEPS = 4;
+	private static final int MAX_STROKE_STEPS = 256 * STROKE_STEPS;
+	private static final int MAX_FONT_SIZE = 512;
+	private static final int FONT_STYLES = 4;
+
+	private static final AtomicReferenceArray<BasicStroke> STROKES = new AtomicReferenceArray<>(MAX_STROKE_STEPS + 1);
+	private static final ConcurrentHashMap<String, AtomicReferenceArray<Font>> FONTS = new ConcurrentHashMap<>();
+
+	private Styles() {
+	}
+
+	/**
+	 * @param size width of stroke
+	 * @return a stroke of the given width
+	 */
+	public static BasicStroke stroke(float size) {
+		int steps = Math.round(size * STROKE_STEPS);
+		if (steps < 0 || steps > MAX_STROKE_STEPS || steps != size * STROKE_STEPS) {
+			return new BasicStroke(size);
+		}
+		BasicStroke stroke = STROKES.get(steps);
+		if (stroke == null) {
+			stroke = new BasicStroke(size);
+			if (!STROKES.compareAndSet(steps, null, stroke)) {
+				stroke = STROKES.get(steps);
+			}
+		}
+		return stroke;
+	}
+
+	/**
+	 * @param name font family
+	 * @param style style such as {@link Font#PLAIN}
+	 * @param size point size
+	 * @return a font with the given family, style and size
+	 */
+	public static Font font(String name, int style, int size) {
+		if (size < 0 || size > MAX_FONT_SIZE || style < 0 || style >= FONT_STYLES) {
+			return new Font(name, style, size);
+		}
+		AtomicReferenceArray<Font> fonts = FONTS.computeIfAbsent(name, n -> new AtomicReferenceArray<>(FONT_STYLES * (MAX_FONT_SIZE + 1)));
+		int index = style * (MAX_FONT_SIZE + 1) + size;
+		Font font = fonts.get(index);
+		if (font == null) {
+			font = new Font(name, style, size);
+			if (!fonts.compareAndSet(index, null, font)) {
+				font = fonts.get(index);
+			}
+		}
+		return font;
+	}
+}
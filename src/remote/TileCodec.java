@@ -0,0 +1,199 @@
+package remote;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Lossless format for sending the canvas of the white board. Each tile of the canvas is split into
+ * smaller square blocks and only the blocks worth sending are written, each run-length encoded and
+ * the whole lot deflated. A whole canvas leaves out blank white blocks, while the changes to a canvas
+ * leave out the blocks that are the same as in the canvas the receiver already has.
+ *
+ * @author Si Yong Lim
+ */
+public final class TileCodec {
+	public static final int BLOCK_SIZE = 64;
+
+	// Identifies an encoded canvas
+	private static final int MAGIC = 0x57425432;
+	private static final int CHANGES = 1;
+	private static final int WHITE = 0xFFFFFF;
+	private static final int TILE_SIZE = TiledCanvas.TILE_SIZE;
+	private static final int BLOCKS = TILE_SIZE / BLOCK_SIZE;
+
+	private TileCodec() {
+	}
+
+	/**
+	 * Encodes a whole canvas, leaving out blank white blocks
+	 * @param canvas canvas to be encoded
+	 * @return the encoded canvas
+	 */
+	public static byte[] encode(TiledCanvas canvas) {
+		return encode(canvas, null);
+	}
+
+	/**
+	 * Encodes only the blocks of a canvas that differ from an earlier one the receiver already has
+	 * @param canvas canvas to be encoded
+	 * @param base earlier canvas, or null to encode the whole canvas
+	 * @return the encoded canvas
+	 */
+	public static byte[] encode(TiledCanvas canvas, TiledCanvas base) {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(baos)) {
+			out.writeInt(MAGIC);
+			out.writeByte(base != null ? CHANGES : 0);
+			out.flush();
+			Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+			DataOutputStream body = new DataOutputStream(new DeflaterOutputStream(baos, deflater, 8192));
+			int[] block = new int[BLOCK_SIZE * BLOCK_SIZE];
+			for (long key : canvas.keys()) {
+				writeTile(body, key, canvas.getPixels(key), base != null ? base.getPixels(key) : null, block);
+			}
+			if (base != null) {
+				// Tiles only in the earlier canvas have been blanked since
+				for (long key : base.keys()) {
+					if (canvas.getPixels(key) == null) {
+						writeTile(body, key, null, base.getPixels(key), block);
+					}
+				}
+			}
+			body.writeBoolean(false);
+			body.close();
+			deflater.end();
+		} catch (IOException e) {
+			// Writing to memory does not fail
+			throw new IllegalStateException(e);
+		}
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Decodes a canvas encoded by {@link #encode(TiledCanvas, TiledCanvas)}
+	 * @param bytes the encoded canvas
+	 * @param base canvas the changes were made against, not modified; may be null for a whole canvas
+	 * @return the decoded canvas
+	 */
+	public static TiledCanvas decode(byte[] bytes, TiledCanvas base) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not a white board canvas");
+		}
+		boolean changes = (in.readByte() & CHANGES) != 0;
+		if (changes && base == null) {
+			throw new IOException("Changes do not match the white board");
+		}
+		TiledCanvas canvas = changes ? base.copy() : new TiledCanvas();
+		int[] block = new int[BLOCK_SIZE * BLOCK_SIZE];
+		try (DataInputStream body = new DataInputStream(new InflaterInputStream(in))) {
+			while (body.readBoolean()) {
+				long key = TiledCanvas.key(body.readInt(), body.readInt());
+				int index = body.readUnsignedByte();
+				if (index >= BLOCKS * BLOCKS) {
+					throw new IOException("Block out of range");
+				}
+				readRuns(body, block);
+				int[] pixels = canvas.getPixels(key);
+				if (pixels == null) {
+					if (blank(block, 0, BLOCK_SIZE)) {
+						continue;
+					}
+					pixels = canvas.getOrCreatePixels(key);
+				}
+				int offset = (index / BLOCKS) * BLOCK_SIZE * TILE_SIZE + (index % BLOCKS) * BLOCK_SIZE;
+				for (int row = 0; row < BLOCK_SIZE; row++) {
+					System.arraycopy(block, row * BLOCK_SIZE, pixels, offset + row * TILE_SIZE, BLOCK_SIZE);
+				}
+			}
+		}
+		return canvas;
+	}
+
+	/**
+	 * Writes every block of a tile that differs from the same block of the earlier tile,
+	 * or that is not blank if there is no earlier canvas. A missing tile is blank white.
+	 */
+	private static void writeTile(DataOutputStream out, long key, int[] pixels, int[] basePixels, int[] block) throws IOException {
+		for (int index = 0; index < BLOCKS * BLOCKS; index++) {
+			int offset = (index / BLOCKS) * BLOCK_SIZE * TILE_SIZE + (index % BLOCKS) * BLOCK_SIZE;
+			if (pixels == null) {
+				Arrays.fill(block, WHITE);
+			} else {
+				for (int row = 0; row < BLOCK_SIZE; row++) {
+					System.arraycopy(pixels, offset + row * TILE_SIZE, block, row * BLOCK_SIZE, BLOCK_SIZE);
+				}
+			}
+			boolean unchanged = basePixels != null ? same(block, basePixels, offset) : blank(block, 0, BLOCK_SIZE);
+			if (unchanged) {
+				continue;
+			}
+			out.writeBoolean(true);
+			out.writeInt(TiledCanvas.tileX(key));
+			out.writeInt(TiledCanvas.tileY(key));
+			out.writeByte(index);
+			writeRuns(out, block);
+		}
+	}
+
+	private static boolean blank(int[] pixels, int offset, int stride) {
+		for (int row = 0; row < BLOCK_SIZE; row++) {
+			for (int i = offset + row * stride, end = i + BLOCK_SIZE; i < end; i++) {
+				if ((pixels[i] & WHITE) != WHITE) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private static boolean same(int[] block, int[] basePixels, int offset) {
+		for (int row = 0; row < BLOCK_SIZE; row++) {
+			for (int i = 0; i < BLOCK_SIZE; i++) {
+				if (((block[row * BLOCK_SIZE + i] ^ basePixels[offset + row * TILE_SIZE + i]) & WHITE) != 0) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes pixels as runs of the same color, each a length followed by the color
+	 */
+	private static void writeRuns(DataOutputStream out, int[] pixels) throws IOException {
+		int i = 0;
+		while (i < pixels.length) {
+			int rgb = pixels[i] & WHITE;
+			int run = 1;
+			while (i + run < pixels.length && (pixels[i + run] & WHITE) == rgb) {
+				run++;
+			}
+			out.writeShort(run - 1);
+			out.writeByte(rgb >> 16);
+			out.writeByte(rgb >> 8);
+			out.writeByte(rgb);
+			i += run;
+		}
+	}
+
+	private static void readRuns(DataInputStream in, int[] pixels) throws IOException {
+		int i = 0;
+		while (i < pixels.length) {
+			int run = in.readUnsignedShort() + 1;
+			int rgb = 0xFF000000 | in.readUnsignedByte() << 16 | in.readUnsignedByte() << 8 | in.readUnsignedByte();
+			if (i + run > pixels.length) {
+				throw new IOException("Run out of range");
+			}
+			Arrays.fill(pixels, i, i + run, rgb);
+			i += run;
+		}
+	}
+}
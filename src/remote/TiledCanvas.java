@@ -0,0 +1,351 @@
+package remote;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.PathIterator;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Raster of a white board with no fixed size. It is split into square tiles that are only
+ * allocated once something is drawn on them, so memory grows with the area drawn on rather
+ * than with the size of the board. Anywhere without a tile is blank white.
+ * Not thread safe: the drawing panels guard it with the lock of their scene.
+ *
+ * @author Si Yong Lim
+ */
+@SuppressWarnings("exports")
+public class TiledCanvas {
+	public static final int TILE_SIZE = 256;
+	// Longest side of an image a JPG can hold
+	private static final int MAX_IMAGE_SIDE = 65500;
+
+	private final LongObjectMap<BufferedImage> tiles = new LongObjectMap<>();
+
+	/**
+	 * Draws a confirmed shape or text onto every tile it touches
+	 * @param operation operation to be drawn
+	 */
+	public void render(Operation operation) {
+		render(operation, null);
+	}
+
+	/**
+	 * Draws a confirmed shape or text onto the tiles it touches, leaving everything outside an area alone
+	 * @param operation operation to be drawn
+	 * @param clip area to draw in, or null for everywhere
+	 */
+	public void render(Operation operation, Rectangle clip) {
+		if (operation.getShape() == null) {
+			Rectangle bounds = Bounds.of(operation);
+			if (bounds != null) {
+				render(operation, clip != null ? bounds.intersection(clip) : bounds, clip, new LongObjectMap<>());
+			}
+			return;
+		}
+		// Shapes are only outlined, so a long stroke only needs the tiles along its segments
+		LongObjectMap<Boolean> rendered = new LongObjectMap<>();
+		float[] coords = new float[6];
+		float startX = 0, startY = 0, lastX = 0, lastY = 0;
+		for (PathIterator it = operation.getShape().getPathIterator(null, 1.0); !it.isDone(); it.next()) {
+			switch (it.currentSegment(coords)) {
+				case PathIterator.SEG_MOVETO:
+					startX = lastX = coords[0];
+					startY = lastY = coords[1];
+					render(operation, Bounds.of(lastX, lastY, lastX, lastY, operation.getSize()), clip, rendered);
+					break;
+				case PathIterator.SEG_LINETO:
+					render(operation, Bounds.of(lastX, lastY, coords[0], coords[1], operation.getSize()), clip, rendered);
+					lastX = coords[0];
+					lastY = coords[1];
+					break;
+				case PathIterator.SEG_CLOSE:
+					render(operation, Bounds.of(lastX, lastY, startX, startY, operation.getSize()), clip, rendered);
+					lastX = startX;
+					lastY = startY;
+					break;
+				default:
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Draws an operation onto every tile overlapping an area that it has not been drawn onto yet
+	 */
+	private void render(Operation operation, Rectangle area, Rectangle clip, LongObjectMap<Boolean> rendered) {
+		if (clip != null) {
+			area = area.intersection(clip);
+		}
+		if (area.isEmpty()) {
+			return;
+		}
+		int minX = Math.floorDiv(area.x, TILE_SIZE);
+		int minY = Math.floorDiv(area.y, TILE_SIZE);
+		int maxX = Math.floorDiv(area.x + area.width, TILE_SIZE);
+		int maxY = Math.floorDiv(area.y + area.height, TILE_SIZE);
+		for (int ty = minY; ty <= maxY; ty++) {
+			for (int tx = minX; tx <= maxX; tx++) {
+				if (rendered.put(key(tx, ty), Boolean.TRUE) != null) {
+					continue;
+				}
+				Graphics2D g2 = tile(tx, ty).createGraphics();
+				g2.translate(-tx * TILE_SIZE, -ty * TILE_SIZE);
+				if (clip != null) {
+					g2.clip(clip);
+				}
+				SceneLog.render(g2, operation);
+				g2.dispose();
+			}
+		}
+	}
+
+	/**
+	 * Draws an image onto the canvas
+	 * @param image image to be drawn
+	 * @param x x coordinate of the image's top left corner
+	 * @param y y coordinate of the image's top left corner
+	 */
+	public void drawImage(BufferedImage image, int x, int y) {
+		int minX = Math.floorDiv(x, TILE_SIZE);
+		int minY = Math.floorDiv(y, TILE_SIZE);
+		int maxX = Math.floorDiv(x + image.getWidth() - 1, TILE_SIZE);
+		int maxY = Math.floorDiv(y + image.getHeight() - 1, TILE_SIZE);
+		for (int ty = minY; ty <= maxY; ty++) {
+			for (int tx = minX; tx <= maxX; tx++) {
+				Graphics2D g2 = tile(tx, ty).createGraphics();
+				g2.drawImage(image, x - tx * TILE_SIZE, y - ty * TILE_SIZE, null);
+				g2.dispose();
+			}
+		}
+	}
+
+	/**
+	 * Copies every tile of another canvas over this one
+	 * @param other canvas to be copied
+	 */
+	public void drawCanvas(TiledCanvas other) {
+		for (long key : other.tiles.keys()) {
+			int[] source = pixels(other.tiles.get(key));
+			int[] target = pixels(tile(key));
+			System.arraycopy(source, 0, target, 0, source.length);
+		}
+	}
+
+	/**
+	 * Copies the tiles of another canvas over this one within an area only
+	 * @param other canvas to be copied
+	 * @param area area to copy
+	 */
+	public void drawCanvas(TiledCanvas other, Rectangle area) {
+		forEachTile(area, (tx, ty) -> {
+			BufferedImage source = other.tiles.get(key(tx, ty));
+			if (source != null) {
+				Graphics2D g2 = tile(tx, ty).createGraphics();
+				g2.translate(-tx * TILE_SIZE, -ty * TILE_SIZE);
+				g2.clip(area);
+				g2.drawImage(source, tx * TILE_SIZE, ty * TILE_SIZE, null);
+				g2.dispose();
+			}
+		});
+	}
+
+	/**
+	 * @return a copy of this canvas that can be changed without affecting it
+	 */
+	public TiledCanvas copy() {
+		TiledCanvas copy = new TiledCanvas();
+		copy.drawCanvas(this);
+		return copy;
+	}
+
+	/**
+	 * Blanks the whole canvas, freeing every tile
+	 */
+	public void clear() {
+		tiles.clear();
+	}
+
+	/**
+	 * Blanks an area of the canvas, keeping its tiles
+	 * @param area area to blank
+	 */
+	public void clear(Rectangle area) {
+		forEachTile(area, (tx, ty) -> {
+			BufferedImage tile = tiles.get(key(tx, ty));
+			if (tile != null) {
+				Graphics2D g2 = tile.createGraphics();
+				g2.translate(-tx * TILE_SIZE, -ty * TILE_SIZE);
+				g2.setColor(Color.WHITE);
+				g2.fill(area);
+				g2.dispose();
+			}
+		});
+	}
+
+	/**
+	 * @return number of tiles allocated
+	 */
+	public int getTileCount() {
+		return tiles.size();
+	}
+
+	/**
+	 * @return smallest area covering every tile allocated, or null if the canvas is blank
+	 */
+	public Rectangle getBounds() {
+		Rectangle bounds = null;
+		for (long key : tiles.keys()) {
+			bounds = Bounds.union(bounds, new Rectangle(tileX(key) * TILE_SIZE, tileY(key) * TILE_SIZE, TILE_SIZE, TILE_SIZE));
+		}
+		return bounds;
+	}
+
+	/**
+	 * Paints part of the canvas, given in canvas coordinates
+	 * @param g2 graphics to paint on, already translated to canvas coordinates
+	 * @param area area to paint
+	 */
+	public void paint(Graphics2D g2, Rectangle area) {
+		g2.setColor(Color.WHITE);
+		g2.fillRect(area.x, area.y, area.width, area.height);
+		int minX = Math.floorDiv(area.x, TILE_SIZE);
+		int minY = Math.floorDiv(area.y, TILE_SIZE);
+		int maxX = Math.floorDiv(area.x + area.width - 1, TILE_SIZE);
+		int maxY = Math.floorDiv(area.y + area.height - 1, TILE_SIZE);
+		for (int ty = minY; ty <= maxY; ty++) {
+			for (int tx = minX; tx <= maxX; tx++) {
+				BufferedImage tile = tiles.get(key(tx, ty));
+				if (tile != null) {
+					g2.drawImage(tile, tx * TILE_SIZE, ty * TILE_SIZE, null);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Renders part of the canvas into an image of its own, such as for saving. An area too large for the image
+	 * is scaled down to fit, and only tiles allocated are drawn so that a mostly blank area costs no more than
+	 * the drawing in it.
+	 * @param area area to render
+	 * @param maxPixels most pixels the image may have
+	 * @return the image
+	 */
+	public BufferedImage toImage(Rectangle area, long maxPixels) {
+		double scale = Math.min(1, Math.sqrt(maxPixels / ((double) area.width * area.height)));
+		scale = Math.min(scale, (double) MAX_IMAGE_SIDE / Math.max(area.width, area.height));
+		int width = Math.max(1, (int) Math.ceil(area.width * scale));
+		int height = Math.max(1, (int) Math.ceil(area.height * scale));
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2 = image.createGraphics();
+		g2.setColor(Color.WHITE);
+		g2.fillRect(0, 0, width, height);
+		if (scale < 1) {
+			g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		}
+		g2.scale(scale, scale);
+		g2.translate(-(double) area.x, -(double) area.y);
+		for (long key : tiles.keys()) {
+			double x = (double) tileX(key) * TILE_SIZE;
+			double y = (double) tileY(key) * TILE_SIZE;
+			if (x + TILE_SIZE > area.x && y + TILE_SIZE > area.y && x < (double) area.x + area.width && y < (double) area.y + area.height) {
+				g2.drawImage(tiles.get(key), (int) x, (int) y, null);
+			}
+		}
+		g2.dispose();
+		return image;
+	}
+
+	/**
+	 * @param area area of the canvas
+	 * @return the area grown out to the edges of the tiles it overlaps
+	 */
+	public static Rectangle align(Rectangle area) {
+		int minX = Math.floorDiv(area.x, TILE_SIZE);
+		int minY = Math.floorDiv(area.y, TILE_SIZE);
+		int maxX = Math.floorDiv(area.x + area.width - 1, TILE_SIZE);
+		int maxY = Math.floorDiv(area.y + area.height - 1, TILE_SIZE);
+		return new Rectangle(minX * TILE_SIZE, minY * TILE_SIZE, (maxX - minX + 1) * TILE_SIZE, (maxY - minY + 1) * TILE_SIZE);
+	}
+
+	/**
+	 * @return keys of every tile allocated, see {@link #key(int, int)}
+	 */
+	long[] keys() {
+		return tiles.keys();
+	}
+
+	/**
+	 * @param key key of tile
+	 * @return pixels of the tile, or null if it has not been allocated
+	 */
+	int[] getPixels(long key) {
+		BufferedImage tile = tiles.get(key);
+		return tile != null ? pixels(tile) : null;
+	}
+
+	/**
+	 * @param key key of tile
+	 * @return pixels of the tile, allocating it if needed
+	 */
+	int[] getOrCreatePixels(long key) {
+		return pixels(tile(key));
+	}
+
+	static long key(int tx, int ty) {
+		return ((long) tx << 32) | (ty & 0xFFFFFFFFL);
+	}
+
+	static int tileX(long key) {
+		return (int) (key >> 32);
+	}
+
+	static int tileY(long key) {
+		return (int) key;
+	}
+
+	/**
+	 * Coordinates of a tile, for visiting every tile overlapping an area
+	 */
+	private interface TileVisitor {
+		void visit(int tx, int ty);
+	}
+
+	private static void forEachTile(Rectangle area, TileVisitor visitor) {
+		if (area.isEmpty()) {
+			return;
+		}
+		int minX = Math.floorDiv(area.x, TILE_SIZE);
+		int minY = Math.floorDiv(area.y, TILE_SIZE);
+		int maxX = Math.floorDiv(area.x + area.width - 1, TILE_SIZE);
+		int maxY = Math.floorDiv(area.y + area.height - 1, TILE_SIZE);
+		for (int ty = minY; ty <= maxY; ty++) {
+			for (int tx = minX; tx <= maxX; tx++) {
+				visitor.visit(tx, ty);
+			}
+		}
+	}
+
+	private BufferedImage tile(int tx, int ty) {
+		return tile(key(tx, ty));
+	}
+
+	private BufferedImage tile(long key) {
+		BufferedImage tile = tiles.get(key);
+		if (tile == null) {
+			tile = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+			Graphics2D g2 = tile.createGraphics();
+			g2.setColor(Color.WHITE);
+			g2.fillRect(0, 0, TILE_SIZE, TILE_SIZE);
+			g2.dispose();
+			tiles.put(key, tile);
+		}
+		return tile;
+	}
+
+	private static int[] pixels(BufferedImage tile) {
+		return ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
+	}
+}
@@ -0,0 +1,19 @@
+package remote;
+
+/**
+ * How operations, chat and status updates travel between the users in a session
+ *
+ * @author Si Yong Lim
+ */
+public enum Topology {
+	/**
+	 * Every client sends only to the manager, which relays to everyone else,
+	 * so each client keeps a single connection however many users join
+	 */
+	HUB,
+
+	/**
+	 * Every user sends straight to every other user
+	 */
+	MESH
+}
@@ -0,0 +1,20 @@
+package remote;
+
+/**
+ * How drawing, preview and chat traffic travels between a client and the server, picked at startup.
+ * Clients always join over RMI.
+ *
+ * @author Si Yong Lim
+ */
+public enum Transport {
+	/**
+	 * Remote calls on the peers' RMI stubs
+	 */
+	RMI,
+
+	/**
+	 * Length-prefixed frames over a socket to the server's selector, listening on the RMI port plus one.
+	 * Only used in a hub, falling back to RMI otherwise
+	 */
+	NIO
+}
@@ -0,0 +1,149 @@
+package remote;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.rmi.server.RMIClientSocketFactory;
+import java.rmi.server.RMIServerSocketFactory;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Makes the sockets RMI talks to a white board over. Nagle's algorithm is turned off so that small calls
+ * such as previews go out straight away, keepalive is turned on so that a peer that has vanished is noticed,
+ * and the buffers are set before connecting so that large images are not held up by a small window.
+ * Sockets may also deflate what is written to them, flushed at the end of every call.
+ * Factories with the same settings are equal, which is what lets RMI reuse a connection for later calls.
+ *
+ * @author Si Yong Lim
+ */
+public class TunedSocketFactory implements RMIClientSocketFactory, RMIServerSocketFactory, Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private final boolean compress;
+	private final int bufferSize;
+
+	/**
+	 * @param compress whether everything written is deflated
+	 * @param bufferSize size of the send and receive buffers in bytes, or 0 to leave them be
+	 */
+	public TunedSocketFactory(boolean compress, int bufferSize) {
+		this.compress = compress;
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * @param sockets sockets picked at startup
+	 * @return factory making them, or null for RMI's own
+	 */
+	public static TunedSocketFactory of(Sockets sockets) {
+		switch (sockets) {
+			case TUNED:
+				return new TunedSocketFactory(false, Settings.SOCKET_BUFFER_SIZE);
+			case COMPRESSED:
+				return new TunedSocketFactory(true, Settings.SOCKET_BUFFER_SIZE);
+			default:
+				return null;
+		}
+	}
+
+	@Override
+	public Socket createSocket(String host, int port) throws IOException {
+		Socket socket = new TunedSocket(compress);
+		tune(socket);
+		socket.connect(new InetSocketAddress(host, port));
+		return socket;
+	}
+
+	@Override
+	public ServerSocket createServerSocket(int port) throws IOException {
+		ServerSocket server = new TunedServerSocket();
+		if (bufferSize > 0) {
+			// Accepted sockets take this on, and it only counts if set before they connect
+			server.setReceiveBufferSize(bufferSize);
+		}
+		server.bind(new InetSocketAddress(port));
+		return server;
+	}
+
+	private void tune(Socket socket) throws IOException {
+		socket.setTcpNoDelay(true);
+		socket.setKeepAlive(true);
+		if (bufferSize > 0) {
+			socket.setSendBufferSize(bufferSize);
+			socket.setReceiveBufferSize(bufferSize);
+		}
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof TunedSocketFactory)) {
+			return false;
+		}
+		TunedSocketFactory other = (TunedSocketFactory) o;
+		return compress == other.compress && bufferSize == other.bufferSize;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Boolean.hashCode(compress) + bufferSize;
+	}
+
+	/**
+	 * Hands out tuned sockets for the connections accepted
+	 */
+	private class TunedServerSocket extends ServerSocket {
+		TunedServerSocket() throws IOException {
+		}
+
+		@Override
+		public Socket accept() throws IOException {
+			Socket socket = new TunedSocket(compress);
+			implAccept(socket);
+			tune(socket);
+			return socket;
+		}
+	}
+
+	/**
+	 * Socket whose streams deflate and inflate everything when compressing
+	 */
+	private static class TunedSocket extends Socket {
+		private final boolean compress;
+		private InputStream in;
+		private OutputStream out;
+
+		TunedSocket(boolean compress) {
+			this.compress = compress;
+		}
+
+		@Override
+		public synchronized InputStream getInputStream() throws IOException {
+			if (!compress) {
+				return super.getInputStream();
+			}
+			if (in == null) {
+				in = new InflaterInputStream(super.getInputStream(), new Inflater());
+			}
+			return in;
+		}
+
+		@Override
+		public synchronized OutputStream getOutputStream() throws IOException {
+			if (!compress) {
+				return super.getOutputStream();
+			}
+			if (out == null) {
+				// Flushing sends everything written so far, which RMI does at the end of every call
+				out = new DeflaterOutputStream(super.getOutputStream(), new Deflater(Deflater.BEST_SPEED), true);
+			}
+			return out;
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package server;
 
 import java.awt.EventQueue;
+import java.io.IOException;
 import java.rmi.AlreadyBoundException;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
@@ -9,6 +10,11 @@ import java.rmi.server.ExportException;
 
 import javax.swing.*;
 
+import remote.Settings;
+import remote.Sockets;
+import remote.Topology;
+import remote.Transport;
+
 /**
  * ~ WhiteBoard Server  ~
  * This is the main driver for the white board server.
@@ -19,11 +25,13 @@ public class CreateWhiteBoard {
 	private static String serverAddress;
 	private static String username;
 	private static int port;
+	private static Transport transport = Transport.RMI;
+	private static Sockets sockets = Settings.SOCKETS;
 	
 	public static void main(String[] args) {
 		// Parse command line arguments
-        if (args.length != 3) {
-            System.out.println("EXPECTED: java JoinWhiteBoard <serverIPAddress> <serverPort> <username>");
+        if (args.length < 3 || args.length > 5) {
+            System.out.println("EXPECTED: java CreateWhiteBoard <serverIPAddress> <serverPort> <username> [rmi|nio] [default|tuned|compressed]");
             return;
         }
 
@@ -43,6 +51,30 @@ public class CreateWhiteBoard {
 
         username = args[2];
         
+        // Check valid transport
+        if (args.length >= 4) {
+            try {
+                transport = Transport.valueOf(args[3].toUpperCase());
+            } catch (IllegalArgumentException e) {
+                System.out.println("ERROR: Transport must be rmi or nio");
+                return;
+            }
+            if (transport == Transport.NIO && Settings.TOPOLOGY != Topology.HUB) {
+                System.out.println("WARNING: The NIO transport needs a hub, using RMI");
+                transport = Transport.RMI;
+            }
+        }
+        
+        // Check valid sockets
+        if (args.length == 5) {
+            try {
+                sockets = Sockets.valueOf(args[4].toUpperCase());
+            } catch (IllegalArgumentException e) {
+                System.out.println("ERROR: Sockets must be default, tuned or compressed");
+                return;
+            }
+        }
+        
         
 		try {
             // Launch ServerGUI
@@ -56,14 +88,28 @@ public class CreateWhiteBoard {
     					frame.setVisible(true);
     					
     					// Bind to registry
-    					RemoteWhiteBoard remoteWhiteBoard = new RemoteWhiteBoard(frame, username, frame.getDrawingPanel());
+    					RemoteWhiteBoard remoteWhiteBoard = new RemoteWhiteBoard(frame, username, frame.getDrawingPanel(), sockets);
     					frame.setRemote(remoteWhiteBoard);
     		            registry.bind("WhiteBoard", remoteWhiteBoard);
     		            
+    		            // Clients move over to the NIO transport once they have joined
+    		            NioServer nioServer = null;
+    		            if (transport == Transport.NIO) {
+    		            	try {
+    		            		nioServer = new NioServer(serverAddress, port + 1, remoteWhiteBoard, remoteWhiteBoard);
+    		            	} catch (IOException e) {
+    		            		JOptionPane.showMessageDialog(new JFrame(), e + ". Clients will use RMI instead", "Dialog", JOptionPane.ERROR_MESSAGE);
+    		            	}
+    		            }
+    		            NioServer nio = nioServer;
+    		            
     		            // Shutdown hook
     		            Thread shutdownHook = new Thread(() -> {
     		    			try {
     		    				remoteWhiteBoard.disconnectAll(username);
+    		    				if (nio != null) {
+    		    					nio.close();
+    		    				}
     		    				registry.unbind("WhiteBoard");
     		    			} catch (RemoteException | NotBoundException e1) {
     		    				JOptionPane.showMessageDialog(new JFrame(), e1, "Dialog", JOptionPane.ERROR_MESSAGE);
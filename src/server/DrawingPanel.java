@@ -2,7 +2,9 @@ package server;
 
 import java.io.*;
 import java.rmi.RemoteException;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
 import javax.swing.event.*;
 import javax.swing.*;
 import java.awt.*;
@@ -12,7 +14,19 @@ import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import remote.Action;
+import remote.Bounds;
+import remote.CanvasBuffer;
+import remote.Erasure;
+import remote.FrameStats;
 import remote.FullShape;
+import remote.Operation;
+import remote.PreviewOverlay;
+import remote.SceneLog;
+import remote.Settings;
+import remote.StrokeEraser;
+import remote.StrokeSimplifier;
+import remote.Styles;
+import remote.TiledCanvas;
 
 /**
  * This is the class for the drawing panel on the server.
@@ -21,19 +35,33 @@ import remote.FullShape;
  */
 public class DrawingPanel extends JPanel {
 	private static final long serialVersionUID = 1L;
+	// Trail left while dragging the stroke eraser
+	private static final Color ERASER_TRAIL = new Color(128, 128, 128, 96);
 	private JFrame frame = null;
 	private Action action = Action.FREEDRAW;
 	private Color color = Color.BLACK;
 	private BasicStroke size = new BasicStroke(1.0f);
 	private Font font = new Font("Arial", Font.PLAIN, 5);
-	private BufferedImage image = new BufferedImage(576, 291, BufferedImage.TYPE_INT_RGB);
+	private final TiledCanvas canvas = new TiledCanvas();
 	private File saveFile = null;
-	private ConcurrentHashMap<String, FullShape> previews = new ConcurrentHashMap<>();
+	private ConcurrentHashMap<String, PreviewOverlay> previews = new ConcurrentHashMap<>();
+	private final SceneLog scene = new SceneLog();
+	private final CanvasBuffer buffer = new CanvasBuffer(Settings.RENDER_MODE);
+	private final FrameStats frameStats = new FrameStats(Settings.RENDER_MODE.toString().toLowerCase(), Settings.FRAME_STATS);
+	private final StrokeSimplifier simplifier = new StrokeSimplifier(Settings.SIMPLIFY_TOLERANCE, Settings.SMOOTH_STROKES, Settings.STROKE_STATS);
+	private final SnapshotCache snapshots = new SnapshotCache(scene::getSequence, this::captureImage, Settings.SNAPSHOT_STATS);
+	private ConcurrentHashMap<String, Long> strokes = new ConcurrentHashMap<>();
 
 	// Declare points
 	Point2D.Float pt1 = null;
 	Point2D.Float pt2 = null;
+	private Rectangle ownPreview = null;
+	
+	// Top left corner of the visible part of the canvas, and where a pan started
+	private final Point origin = new Point(0, 0);
+	private Point panStart = null;
 	Path2D.Double freedrawPath = null;
+	private long freedrawId = 0;
 	
 	/**
 	 * Create the panel.
@@ -49,12 +77,21 @@ public class DrawingPanel extends JPanel {
 		MouseAdapter mouseHandler = new MouseAdapter() {
 			@Override
 			public void mousePressed(MouseEvent e) {
-				if (action == Action.FREEDRAW || action == Action.ERASER) {
+				// Dragging with the right mouse button pans around the canvas instead of drawing
+				if (SwingUtilities.isRightMouseButton(e)) {
+					panStart = e.getPoint();
+					return;
+				}
+				if (action == Action.FREEDRAW || action == Action.ERASER || action == Action.STROKE_ERASER) {
 					freedrawPath = new Path2D.Double();
-					freedrawPath.moveTo(e.getX(), e.getY());
+					freedrawPath.moveTo(e.getX() + origin.x, e.getY() + origin.y);
 				}
-				pt1 = new Point2D.Float(e.getX(), e.getY());
+				pt1 = new Point2D.Float(e.getX() + origin.x, e.getY() + origin.y);
 				try {
+					// Start the stroke on other side so that only new points need to be sent while dragging
+					if (action == Action.FREEDRAW || action == Action.ERASER) {
+						freedrawId = ((ServerGUI) frame).getRemote().beginStrokeAll(action == Action.ERASER ? Color.WHITE : color, size.getLineWidth(), e.getX() + origin.x, e.getY() + origin.y);
+					}
 					// Inform everyone that the user is drawing
 					((ServerGUI) frame).getRemote().informAll(action);
 					((ServerGUI) frame).updateUserOperation(((ServerGUI) frame).getUsername(), action);
@@ -65,30 +102,32 @@ public class DrawingPanel extends JPanel {
 			
 			@Override
 			public void mouseReleased(MouseEvent e) {
-				Graphics2D g2 = image.createGraphics();
-
+				if (panStart != null) {
+					panStart = null;
+					return;
+				}
 			    if (action == Action.FREEDRAW || action == Action.ERASER) {
+			    	// Thins out the stroke before it is sent and stored
+			    	freedrawPath = simplifier.simplify(freedrawPath, size.getLineWidth());
 			        if (action == Action.FREEDRAW) {
 			        	try {
-							// Resets the preview on other side and sends the final confirmed shape
-			        		((ServerGUI) frame).getRemote().sendPreviewAll(null, null, 0, null, 0, 0, null);
-							((ServerGUI) frame).getRemote().sendShapeAll(freedrawPath, color, size.getLineWidth());
+							// Ends the stroke preview on other side and sends the final confirmed shape
+			        		((ServerGUI) frame).getRemote().endStrokeAll();
+							((ServerGUI) frame).getRemote().sendShapeAll(freedrawId, freedrawPath, color, size.getLineWidth());
 						} catch (RemoteException e1) {
 							JOptionPane.showMessageDialog(new JFrame(), e1, "Dialog", JOptionPane.ERROR_MESSAGE);
 						}
-			            g2.setColor(color);
 			        } else {
 			        	try {
-							// Resets the preview on other side and sends the final confirmed shape
-			        		((ServerGUI) frame).getRemote().sendPreviewAll(null, null, 0, null, 0, 0, null);
-							((ServerGUI) frame).getRemote().sendShapeAll(freedrawPath, Color.WHITE, size.getLineWidth());
+							// Ends the stroke preview on other side and sends the final confirmed shape
+			        		((ServerGUI) frame).getRemote().endStrokeAll();
+							((ServerGUI) frame).getRemote().sendShapeAll(freedrawId, freedrawPath, Color.WHITE, size.getLineWidth());
 						} catch (RemoteException e1) {
 							JOptionPane.showMessageDialog(new JFrame(), e1, "Dialog", JOptionPane.ERROR_MESSAGE);
 						}
-			            g2.setColor(Color.WHITE);
 			        }
-			        g2.setStroke(size);
-			        g2.draw(freedrawPath);
+			    } else if (action == Action.STROKE_ERASER) {
+			    	eraseStrokes();
 			    } else if (action == Action.TEXT) {
 			    	// Spawns new text field at user's mouse position
 			        JTextField textField = new JTextField();
@@ -104,8 +143,8 @@ public class DrawingPanel extends JPanel {
 			        textField.requestFocusInWindow();
 			        DrawingPanel.this.repaint();
 
-			        final int x = e.getX();
-			        final int y = e.getY();
+			        final int x = e.getX() + origin.x;
+			        final int y = e.getY() + origin.y;
 			        
 			        // Invoked when the user types or deletes anything in the text field
 			        textField.getDocument().addDocumentListener(new DocumentListener() {
@@ -137,19 +176,13 @@ public class DrawingPanel extends JPanel {
 			            @Override
 			            public void focusLost(FocusEvent fe) {
 			                String text = textField.getText();
-		                    Graphics2D g2 = image.createGraphics();
-		                    g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-		                    g2.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-		                    g2.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
-		                    g2.setColor(color);
-		                    g2.setFont(font);
-		                    g2.drawString(text, x, y + (int)(font.getSize() * 1.0));
+		                    long strokeId = ((ServerGUI) frame).getRemote().nextStrokeId();
 
 		                    try {
 		                    	((ServerGUI) frame).getRemote().informAll(null);
 		                    	((ServerGUI) frame).updateUserOperation(((ServerGUI) frame).getUsername(), null);
 		                    	((ServerGUI) frame).getRemote().sendPreviewAll(null, null, 0, null, 0, 0, null);
-		                        ((ServerGUI) frame).getRemote().sendTextAll(text, x, y + (int)(font.getSize() * 1.0), color, font);
+		                        ((ServerGUI) frame).getRemote().sendTextAll(strokeId, text, x, y + (int)(font.getSize() * 1.0), color, font);
 		                    } catch (RemoteException ex) {
 		                        JOptionPane.showMessageDialog(new JFrame(), ex, "Dialog", JOptionPane.ERROR_MESSAGE);
 		                    }
@@ -160,21 +193,19 @@ public class DrawingPanel extends JPanel {
 			        });
 			    } else {
 					// Register second point
-			        pt2 = new Point2D.Float(e.getX(), e.getY());
+			        pt2 = new Point2D.Float(e.getX() + origin.x, e.getY() + origin.y);
 			        Shape shape = createShape(pt1, pt2);
-			        g2.setStroke(size);
-			        g2.setColor(color);
-			        g2.draw(shape);
+			        long strokeId = ((ServerGUI) frame).getRemote().nextStrokeId();
 			        try {
 			        	((ServerGUI) frame).getRemote().sendPreviewAll(null, null, 0, null, 0, 0, null);
-						((ServerGUI) frame).getRemote().sendShapeAll(shape, color, size.getLineWidth());
+						((ServerGUI) frame).getRemote().sendShapeAll(strokeId, shape, color, size.getLineWidth());
 					} catch (RemoteException e1) {
 						JOptionPane.showMessageDialog(new JFrame(), e1, "Dialog", JOptionPane.ERROR_MESSAGE);
 					}
 			    }
 
-			    g2.dispose();
-			    repaint();
+			    repaintArea(ownPreview);
+			    ownPreview = null;
 			    
 			    ((ServerGUI) frame).setSaved(false);
 			    
@@ -193,19 +224,39 @@ public class DrawingPanel extends JPanel {
 			
 			@Override
 			public void mouseDragged(MouseEvent e) {
+				if (panStart != null) {
+					origin.translate(panStart.x - e.getX(), panStart.y - e.getY());
+					panStart = e.getPoint();
+					repaint();
+					return;
+				}
 				// Sets current pt2 for the preview
-				pt2 = new Point2D.Float(e.getX(), e.getY());
+				Point2D.Float last = pt2 != null ? pt2 : pt1;
+				pt2 = new Point2D.Float(e.getX() + origin.x, e.getY() + origin.y);
+				Rectangle dirty = null;
 		        try {
-		        	if (action == Action.ERASER) {
-		        		((ServerGUI) frame).getRemote().sendPreviewAll(createShape(pt1, pt2), Color.WHITE, size.getLineWidth(), null, 0, 0, null);
+		        	if (action == Action.FREEDRAW || action == Action.ERASER) {
+		        		// Others already have the rest of the stroke so only the new point is sent
+		        		createShape(pt1, pt2);
+		        		dirty = Bounds.of(last.x, last.y, pt2.x, pt2.y, size.getLineWidth());
+		        		((ServerGUI) frame).getRemote().appendPointAll(pt2.x, pt2.y);
+					} else if (action == Action.STROKE_ERASER) {
+						// The eraser's trail is only shown here, what it erases is sent once it is lifted
+						createShape(pt1, pt2);
+						dirty = Bounds.of(last.x, last.y, pt2.x, pt2.y, StrokeEraser.radius(size.getLineWidth()) * 2);
 					} else {
-						((ServerGUI) frame).getRemote().sendPreviewAll(createShape(pt1, pt2), color, size.getLineWidth(), null, 0, 0, null);
+						Shape preview = createShape(pt1, pt2);
+						if (preview != null) {
+							dirty = Bounds.of(preview, size.getLineWidth());
+						}
+						((ServerGUI) frame).getRemote().sendPreviewAll(preview, color, size.getLineWidth(), null, 0, 0, null);
 					}
-					
 				} catch (RemoteException e1) {
 					JOptionPane.showMessageDialog(new JFrame(), e1, "Dialog", JOptionPane.ERROR_MESSAGE);
 				}
-			    repaint();
+		        // Only the area covered by the old and new preview needs repainting
+			    repaintArea(Bounds.union(ownPreview, dirty));
+			    ownPreview = dirty;
 			}
 		};
 		
@@ -244,6 +295,7 @@ public class DrawingPanel extends JPanel {
 				freedrawPath.lineTo(p2.x, p2.y);
                 return freedrawPath;
 			case FREEDRAW:
+			case STROKE_ERASER:
 				freedrawPath.lineTo(p2.x, p2.y);
                 return freedrawPath;
 			case TRIANGLE:
@@ -266,36 +318,40 @@ public class DrawingPanel extends JPanel {
 	 */
 	@Override
     protected void paintComponent(Graphics g) {
+        long start = System.nanoTime();
         super.paintComponent(g);
         Graphics2D g2 = (Graphics2D) g;
         // To ensure smooth drawing
         g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
         g2.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
         g2.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
-        g2.drawImage(image, 0, 0, this);
+        synchronized (scene) {
+        	buffer.paint(g2, this, canvas, getViewport());
+        }
+        
+        // Previews are in canvas coordinates
+        g2.translate(-origin.x, -origin.y);
         
         // Preview of own's drawing
         if (pt1 != null && pt2 != null && action != Action.TEXT) {
             Shape preview = createShape(pt1, pt2);
-            if (preview != null) {
+            if (preview != null && action == Action.STROKE_ERASER) {
+                g2.setStroke(Styles.stroke(StrokeEraser.radius(size.getLineWidth()) * 2));
+                g2.setColor(ERASER_TRAIL);
+                g2.draw(preview);
+            } else if (preview != null) {
                 g2.setStroke(size);
                 g2.setColor(action == Action.ERASER ? Color.WHITE : color);
                 g2.draw(preview);
             }
         }
         
-        // Preview of other user's drawing
-        for (FullShape s : previews.values()) {
-        	// Drawing shapes
-        	if (s.getStroke() != null) g2.setStroke(s.getStroke());
-        	if (s.getColor() != null) g2.setColor(s.getColor());
-        	if (s.getShape() != null) g2.draw(s.getShape());
-        	
-        	// Drawing text
-        	if (s.getColor() != null) g2.setColor(s.getColor());
-        	if (s.getFont() != null) g2.setFont(s.getFont());
-        	if (s.getString() != null && s.getX() != 0 && s.getY() != 0) g2.drawString(s.getString(), s.getX(), s.getY());
+        // Preview of other user's drawing, each only drawn again when that user's preview changes
+        Rectangle clip = g2.getClipBounds();
+        for (PreviewOverlay overlay : previews.values()) {
+        	overlay.paint(g2, clip);
 		}
+        frameStats.record(System.nanoTime() - start);
     }
 
 	/**
@@ -308,7 +364,7 @@ public class DrawingPanel extends JPanel {
     		return saveAsImage();
     	} else {
     		try {
-                return ImageIO.write(image, "jpg", saveFile);
+                return writeFile(saveFile);
             } catch (IOException e) {
             	JOptionPane.showMessageDialog(new JFrame(), e, "Dialog", JOptionPane.ERROR_MESSAGE);
             }
@@ -317,21 +373,26 @@ public class DrawingPanel extends JPanel {
     }
 
     /**
-	 * Saves as the image to local directory
+	 * Saves as the image to local directory, either as a JPG or as a white board file keeping every shape
 	 * @return whether image is successfully saved
 	 */
     public boolean saveAsImage() {
 		JFileChooser filechooser = new JFileChooser();
         FileNameExtensionFilter filter = new FileNameExtensionFilter("JPG Images", "jpg");
+        FileNameExtensionFilter boardFilter = new FileNameExtensionFilter("White Board Files", "board");
+        filechooser.addChoosableFileFilter(boardFilter);
         filechooser.setFileFilter(filter);
         int result = filechooser.showSaveDialog(this);
         if (result == JFileChooser.APPROVE_OPTION) {
             saveFile = filechooser.getSelectedFile();
-            if (!saveFile.getName().toLowerCase().endsWith(".jpg")) {
+            String name = saveFile.getName().toLowerCase();
+            if (filechooser.getFileFilter() == boardFilter && !name.endsWith(".board")) {
+            	saveFile = new File(saveFile.getAbsolutePath() + ".board");
+            } else if (filechooser.getFileFilter() != boardFilter && !name.endsWith(".jpg")) {
                 saveFile = new File(saveFile.getAbsolutePath() + ".jpg");
             }
             try {
-                return ImageIO.write(image, "jpg", saveFile);
+                return writeFile(saveFile);
             } catch (IOException e) {
             	JOptionPane.showMessageDialog(new JFrame(), e, "Dialog", JOptionPane.ERROR_MESSAGE);
             }
@@ -340,20 +401,49 @@ public class DrawingPanel extends JPanel {
     }
     
     /**
-     * Loads the image
+     * Writes the white board to a file, keeping the scene for white board files and flattening it for JPGs
+     * @param file file to be written
+     * @return whether image is successfully saved
+     */
+    private boolean writeFile(File file) throws IOException {
+    	if (file.getName().toLowerCase().endsWith(".board")) {
+    		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+    			scene.write(out);
+    		}
+    		return true;
+    	}
+    	// Flattens everything drawn along with whatever is in view, scaled down if drawings are far apart
+    	BufferedImage flattened;
+    	synchronized (scene) {
+    		flattened = canvas.toImage(Bounds.union(canvas.getBounds(), getViewport()), Settings.EXPORT_MAX_PIXELS);
+    	}
+    	return ImageIO.write(flattened, "jpg", file);
+    }
+    
+    /**
+     * Loads the image, or the scene saved in a white board file
      * @return whether image is successfully loaded
      */
     public boolean loadImage() {
         JFileChooser filechooser = new JFileChooser();
-        FileNameExtensionFilter filter = new FileNameExtensionFilter("JPG Images", "jpg");
+        FileNameExtensionFilter filter = new FileNameExtensionFilter("JPG Images and White Board Files", "jpg", "board");
         filechooser.setFileFilter(filter);
         int result = filechooser.showOpenDialog(this);
         if (result == JFileChooser.APPROVE_OPTION) {
             File openFile = filechooser.getSelectedFile();
             try {
             	clearImage();
-                image = ImageIO.read(openFile);
-                repaint();
+            	if (openFile.getName().toLowerCase().endsWith(".board")) {
+            		try (InputStream in = new BufferedInputStream(new FileInputStream(openFile))) {
+            			scene.read(in);
+            		}
+            	} else {
+            		TiledCanvas loaded = new TiledCanvas();
+            		loaded.drawImage(ImageIO.read(openFile), 0, 0);
+            		scene.reset(loaded);
+            	}
+            	origin.setLocation(0, 0);
+                rebuild();
                 
                 return true;
             } catch (IOException e) {
@@ -375,22 +465,93 @@ public class DrawingPanel extends JPanel {
 	 * @param font the font size of the shape
 	 */
     public void drawPreview(String username, Shape shape, Color color, float size, String string, int x, int y, Font font) {
-		// Checks is previews currently contains a shape by the user, otherwise add it into previews list to render
-    	previews.replace(username, new FullShape(shape, color, new BasicStroke(size), string, x, y, font));
-		if (!previews.containsKey(username)) {
-			previews.put(username, new FullShape(shape, color, new BasicStroke(size), string, x, y, font));
+		strokes.remove(username);
+		// Reuses the user's preview slot and repaints only the area covered by the old and new preview
+		PreviewOverlay overlay = previews.get(username);
+		if (overlay == null) {
+			overlay = new PreviewOverlay(new FullShape(shape, color, Styles.stroke(size), string, x, y, font));
+			previews.put(username, overlay);
+			repaintArea(Bounds.of(overlay.getPreview()));
+			return;
+		}
+		repaintArea(overlay.update(shape, color, Styles.stroke(size), string, x, y, font));
+	}
+	
+	/**
+	 * Starts previewing a freehand stroke drawn by another user
+	 * @param username user drawing the stroke
+	 * @param strokeId id of the stroke
+	 * @param color color being used
+	 * @param size size of stroke
+	 * @param x x coordinate of first point
+	 * @param y y coordinate of first point
+	 */
+	public void beginStroke(String username, long strokeId, Color color, float size, float x, float y) {
+		Path2D.Double path = new Path2D.Double();
+		path.moveTo(x, y);
+		strokes.put(username, strokeId);
+		PreviewOverlay overlay = previews.get(username);
+		Rectangle old = null;
+		if (overlay == null) {
+			previews.put(username, new PreviewOverlay(new FullShape(path, color, Styles.stroke(size), null, 0, 0, null)));
+		} else {
+			old = overlay.getBounds();
+			overlay.update(path, color, Styles.stroke(size), null, 0, 0, null);
+		}
+		repaintArea(Bounds.union(old, Bounds.of(x, y, x, y, size)));
+	}
+	
+	/**
+	 * Extends the previewed stroke of another user with the points drawn since the last update
+	 * @param username user drawing the stroke
+	 * @param strokeId id of the stroke
+	 * @param points new points as x and y coordinates one after the other
+	 */
+	public void appendPoints(String username, long strokeId, float[] points) {
+		PreviewOverlay overlay = previews.get(username);
+		Long current = strokes.get(username);
+		if (overlay == null || current == null || current != strokeId) {
+			return;
+		}
+		overlay.invalidate();
+		FullShape preview = overlay.getPreview();
+		Path2D path = (Path2D) preview.getShape();
+		// Only the new part of the stroke, starting from where it left off, needs repainting
+		Point2D start = path.getCurrentPoint();
+		double minX = start.getX(), minY = start.getY(), maxX = minX, maxY = minY;
+		for (int i = 0; i + 1 < points.length; i += 2) {
+			path.lineTo(points[i], points[i + 1]);
+			minX = Math.min(minX, points[i]);
+			minY = Math.min(minY, points[i + 1]);
+			maxX = Math.max(maxX, points[i]);
+			maxY = Math.max(maxY, points[i + 1]);
+		}
+		repaintArea(Bounds.of(minX, minY, maxX, maxY, preview.getStroke().getLineWidth()));
+	}
+	
+	/**
+	 * Removes the previewed stroke of another user once they have finished it
+	 * @param username user drawing the stroke
+	 * @param strokeId id of the stroke
+	 */
+	public void endStroke(String username, long strokeId) {
+		if (strokes.remove(username, strokeId)) {
+			PreviewOverlay overlay = previews.remove(username);
+			if (overlay != null) {
+				repaintArea(overlay.getBounds());
+			}
 		}
-		repaint();
 	}
     
     /**
 	 * Clears white board when called on server side
 	 */
 	public void clearImage() {
-		Graphics2D g2 = image.createGraphics();
-	    g2.setColor(Color.WHITE);
-	    g2.fillRect(0, 0, image.getWidth(), image.getHeight());
-	    g2.dispose();
+		synchronized (scene) {
+			scene.clear();
+			canvas.clear();
+		    buffer.invalidate(null);
+		}
 		pt1 = null;
 		pt2 = null;
 		freedrawPath = null;
@@ -418,55 +579,132 @@ public class DrawingPanel extends JPanel {
 	 * @param size size of stroke to be set
 	 */
 	public void setSize(float size) {
-		this.size = new BasicStroke(size);
-		this.font = new Font("Arial", Font.PLAIN, (int) size * 5 );
+		this.size = Styles.stroke(size);
+		this.font = Styles.font("Arial", Font.PLAIN, (int) size * 5 );
 	}
 	
 	/**
-	 * Draw a shape on the white board
-	 * @param shape shape to be drawn
-	 * @param color color used
-	 * @param size size of shape's stroke
+	 * Asks for what is on the white board to be converted to a stream of bytes to send to others in active session,
+	 * reusing the bytes already encoded if the white board has not changed since. It is sent as the background
+	 * along with the shapes and text on it, so that whoever receives it can erase them later. It is captured
+	 * straight away, so that it matches whatever has already been queued to be sent, and encoded in the background.
+	 * @return the white board converted into stream of bytes, once encoded
 	 */
-	public void drawShape(Shape shape, Color color, float size) {
-		Graphics2D g2 = image.createGraphics();
-        g2.setColor(color);
-        g2.setStroke(new BasicStroke(size));
-        g2.draw(shape);
-        g2.dispose();
-		frame.repaint();
+	public Future<SnapshotCache.Snapshot> sendImage() {
+		synchronized (scene) {
+			return snapshots.request();
+		}
 	}
 	
 	/**
-	 * Converts current image to stream of bytes and send to others in active session
+	 * Waits for an image asked for earlier to be encoded. Must not be called on the event dispatch thread.
+	 * @param image image given by {@link #sendImage()}
 	 * @return the image converted into stream of bytes
 	 */
-	public byte[] sendImage() {
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+	public SnapshotCache.Snapshot awaitImage(Future<SnapshotCache.Snapshot> image) throws IOException {
+		return snapshots.get(image);
+	}
+	
+	/**
+	 * Takes what is on the white board as it stands, which only copies references to the background and
+	 * the shapes and text on it, leaving every tile and shape to be written out on the snapshot thread
+	 * @return encodes what was taken
+	 */
+	private SnapshotCache.Encoder captureImage() {
+		SceneLog.Contents contents;
+		long version;
+		synchronized (scene) {
+			version = scene.getSequence();
+			contents = scene.capture();
+		}
+		return () -> new SnapshotCache.Snapshot(version, contents.toByteArray());
+	}
+	
+	/**
+	 * Takes whatever the stroke eraser passed over off the white board and tells everyone else
+	 */
+	private void eraseStrokes() {
+		List<Erasure> erasures = StrokeEraser.erase(scene, Erasure.points(freedrawPath), StrokeEraser.radius(size.getLineWidth()));
+		if (erasures.isEmpty()) {
+			return;
+		}
+		int pieces = 0;
+		for (Erasure erasure : erasures) {
+			pieces += erasure.getPieceCount();
+		}
+		long strokeId = ((ServerGUI) frame).getRemote().reserveStrokeIds(pieces);
 		try {
-			ImageIO.write(image, "jpg", baos);
-		} catch (IOException e) {
+			((ServerGUI) frame).getRemote().sendDeleteAll(strokeId, erasures);
+		} catch (RemoteException e) {
 			JOptionPane.showMessageDialog(new JFrame(), e, "Dialog", JOptionPane.ERROR_MESSAGE);
 		}
-		return baos.toByteArray();
 	}
-
+	
 	/**
-	 * Draws a text on the white board
-	 * @param text text to be drawn
-	 * @param x x coordinate of text
-	 * @param y y coordinate of text
-	 * @param color color used
-	 * @param font font's size of text
+	 * Adds a confirmed shape or text to the scene and draws it onto the raster kept for painting
+	 * @param operation operation to be committed
 	 */
-	public void drawText(String text, int x, int y, Color color, Font font) {
-		Graphics2D g2 = image.createGraphics();
-		g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        g2.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-        g2.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
-        g2.setColor(color);
-        g2.setFont(font);
-        g2.drawString(text, x, y);
-		frame.repaint();
+	public void commit(Operation operation) {
+		commitAll(List.of(operation));
+	}
+	
+	/**
+	 * Adds confirmed shapes, text and deletes to the scene and draws them onto the raster kept for painting,
+	 * with a single repaint covering all of them. May be called off the event dispatch thread.
+	 * @param operations operations to be committed in order
+	 */
+	public void commitAll(List<Operation> operations) {
+		Rectangle bounds = null;
+		synchronized (scene) {
+			for (Operation operation : operations) {
+				scene.append(operation);
+				Rectangle area = scene.getArea(operation);
+				if (operation.getType() != Operation.Type.DELETE) {
+					canvas.render(operation);
+				} else if (area != null) {
+					// Whatever was under the erased shapes shows through again
+					scene.replay(canvas, area);
+				}
+				bounds = Bounds.union(bounds, area);
+			}
+			buffer.invalidate(bounds);
+		}
+		repaintArea(bounds);
+	}
+	
+	/**
+	 * Repaints only the given area of the white board
+	 * @param bounds area to be repainted in canvas coordinates, or null if nothing needs repainting
+	 */
+	private void repaintArea(Rectangle bounds) {
+		if (bounds != null) {
+			repaint(bounds.x - origin.x, bounds.y - origin.y, bounds.width, bounds.height);
+		}
+	}
+	
+	/**
+	 * @return area of the canvas visible in the panel
+	 */
+	private Rectangle getViewport() {
+		return new Rectangle(origin.x, origin.y, getWidth(), getHeight());
+	}
+	
+	/**
+	 * Redraws the canvas kept for painting by replaying the whole scene
+	 */
+	private void rebuild() {
+		synchronized (scene) {
+			scene.replay(canvas);
+			buffer.invalidate(null);
+		}
+		repaint();
+	}
+	
+	/**
+	 * Getter method for the scene drawn on this white board
+	 * @return the scene
+	 */
+	public SceneLog getScene() {
+		return scene;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,276 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import remote.CompressionStats;
+import remote.FrameBuffer;
+import remote.FrameCodec;
+import remote.FrameCompressor;
+import remote.FramedPeer;
+import remote.Settings;
+
+/**
+ * Carries drawing, preview and chat traffic between the server and its clients over plain sockets
+ * instead of RMI. A single thread drives every connection through a selector, and the calls each frame
+ * stands for are made in order on a thread of their own so that drawing never holds up the network.
+ * Clients still join over RMI, then open a connection here and say hello with a token handed to them over RMI,
+ * after which the server talks to them only through it. Until then only a frame big enough for a hello is accepted,
+ * and a connection sending a frame that cannot be read or made sense of, or that speaks for a user other than
+ * the one who said hello, is closed. A client may ask for its frames to be compressed, which the server agrees
+ * to if compression is enabled.
+ *
+ * @author Si Yong Lim
+ */
+public class NioServer {
+	/**
+	 * Told when a client's connection is ready or has gone
+	 */
+	public interface Listener {
+		/**
+		 * @param username user the connection belongs to
+		 * @param token token the hello carries
+		 * @param peer session sending frames down the connection
+		 * @return whether the user is allowed in, the connection being closed if not
+		 */
+		boolean attached(String username, byte[] token, FramedPeer peer);
+
+		/**
+		 * @param username user whose connection was closed
+		 * @param peer session that was sending frames down the connection
+		 */
+		void detached(String username, FramedPeer peer);
+	}
+
+	// Most bytes queued for a single client before whoever is sending has to wait
+	private static final long MAX_QUEUED = 8L << 20;
+
+	private final Selector selector;
+	private final ServerSocketChannel server;
+	private final RemoteWhiteBoard target;
+	private final Listener listener;
+	private final Queue<Connection> writable = new ConcurrentLinkedQueue<>();
+	private final ExecutorService calls = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "whiteboard-nio-calls");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Starts listening
+	 * @param address address to listen on
+	 * @param port port to listen on
+	 * @param target session the calls are made on
+	 * @param listener told when clients' connections come and go
+	 */
+	public NioServer(String address, int port, RemoteWhiteBoard target, Listener listener) throws IOException {
+		this.target = target;
+		this.listener = listener;
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(address, port));
+		server.configureBlocking(false);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+		Thread thread = new Thread(this::run, "whiteboard-nio");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void run() {
+		while (selector.isOpen()) {
+			try {
+				selector.select();
+				Connection connection;
+				while ((connection = writable.poll()) != null) {
+					if (connection.key.isValid()) {
+						connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_WRITE);
+					}
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+						continue;
+					}
+					connection = (Connection) key.attachment();
+					try {
+						if (key.isReadable() && !connection.buffer.read(connection.channel, connection::received)) {
+							connection.close();
+							continue;
+						}
+						if (key.isValid() && key.isWritable()) {
+							connection.flush();
+						}
+					} catch (IOException | RuntimeException e) {
+						connection.close();
+					}
+				}
+			} catch (IOException e) {
+				return;
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = server.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		Connection connection = new Connection(channel);
+		connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+	}
+
+	/**
+	 * Stops listening and closes every connection
+	 */
+	public void close() {
+		try {
+			for (SelectionKey key : selector.keys()) {
+				key.channel().close();
+			}
+			selector.close();
+		} catch (IOException e) {
+			// Closing anyway
+		}
+		calls.shutdown();
+	}
+
+	/**
+	 * A client's connection along with its buffers
+	 */
+	private class Connection implements FramedPeer.Sink {
+		private final SocketChannel channel;
+		private final FrameBuffer buffer = new FrameBuffer();
+		private SelectionKey key;
+		private FrameCompressor compressor = null;
+		private volatile String username = null;
+		private FramedPeer peer = null;
+		private boolean closed = false;
+
+		Connection(SocketChannel channel) {
+			this.channel = channel;
+			buffer.setMaxFrame(FrameCodec.MAX_HELLO);
+		}
+
+		/**
+		 * Handles a frame read, on the selector's thread
+		 */
+		private void received(byte[] frame) throws IOException {
+			if (username == null) {
+				String hello = FrameCodec.readHello(frame);
+				if (hello == null) {
+					throw new IOException("Connection not expected");
+				}
+				if (Settings.COMPRESSION && FrameCodec.readCompress(frame)) {
+					// Agreed to before anything compressed is queued
+					send(FrameCodec.compressing());
+					synchronized (this) {
+						compressor = new FrameCompressor(new CompressionStats("to " + hello, Settings.COMPRESSION_STATS));
+					}
+				}
+				peer = new FramedPeer(hello, this);
+				if (!listener.attached(hello, FrameCodec.readToken(frame), peer)) {
+					throw new IOException("Connection not expected");
+				}
+				username = hello;
+				buffer.setMaxFrame(FrameCodec.MAX_FRAME);
+				return;
+			}
+			if (FrameCodec.isDeflated(frame)) {
+				if (compressor == null) {
+					throw new IOException("Compression not agreed to");
+				}
+				frame = compressor.inflate(frame);
+			}
+			if (!FrameCodec.isFrom(frame, username)) {
+				throw new IOException("Frame sent in the name of someone other than " + username);
+			}
+			byte[] call = frame;
+			calls.execute(() -> {
+				try {
+					FrameCodec.dispatch(call, target, target);
+				} catch (RemoteException | RuntimeException e) {
+					close();
+				}
+			});
+		}
+
+		/**
+		 * Queues a frame, waiting while the client is too far behind, on whichever thread is sending
+		 */
+		@Override
+		public void send(byte[] frame) throws RemoteException {
+			synchronized (this) {
+				long deadline = System.currentTimeMillis() + Settings.CALL_TIMEOUT_MILLIS;
+				while (!closed && buffer.getQueued() > MAX_QUEUED) {
+					long wait = deadline - System.currentTimeMillis();
+					if (wait <= 0) {
+						throw new RemoteException("Timed out writing to " + username);
+					}
+					try {
+						wait(wait);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new RemoteException("Interrupted writing to " + username);
+					}
+				}
+				if (closed) {
+					throw new RemoteException("Connection to " + username + " is closed");
+				}
+				buffer.add(compressor != null ? compressor.compress(frame) : frame);
+			}
+			writable.add(this);
+			selector.wakeup();
+		}
+
+		/**
+		 * Writes out what is queued, on the selector's thread
+		 */
+		private synchronized void flush() throws IOException {
+			if (buffer.write(channel)) {
+				key.interestOps(SelectionKey.OP_READ);
+			}
+			notifyAll();
+		}
+
+		private void close() {
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				notifyAll();
+				if (compressor != null) {
+					compressor.end();
+				}
+			}
+			key.cancel();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// Already gone
+			}
+			if (username != null) {
+				String gone = username;
+				calls.execute(() -> listener.detached(gone, peer));
+			}
+		}
+	}
+}
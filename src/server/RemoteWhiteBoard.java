@@ -3,9 +3,17 @@ package server;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.Shape;
+import java.io.IOException;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.swing.JOptionPane;
 import javax.swing.SwingUtilities;
 
@@ -17,24 +25,48 @@ import remote.*;
  *
  * @author Si Yong Lim
  */
-public class RemoteWhiteBoard extends UnicastRemoteObject implements IRemoteWhiteBoard {
+public class RemoteWhiteBoard extends UnicastRemoteObject implements IRemoteWhiteBoard, NioServer.Listener {
 	private static final long serialVersionUID = 1L;
 	private final ServerGUI frame;
 	private final ConcurrentHashMap<String, IRemoteWhiteBoard> clients = new ConcurrentHashMap<>();
 	private final String username;
 	private final DrawingPanel drawingPanel;
+	private final PeerDispatcher dispatcher = new PeerDispatcher(this::evict);
+	private final StrokeBuffer strokeBuffer = new StrokeBuffer(this::sendPointsAll);
+	private final Presence presence = new Presence(this::sendStatusAll, Settings.PRESENCE_DEBOUNCE_MILLIS);
+	// Starts from the clock so that ids stay unique for a user who leaves and joins again under the same name
+	private long strokeCount = System.currentTimeMillis();
+	private long currentStroke = 0;
+	private final RenderWorker renderWorker;
+	// Whether clients send only to this server, which relays to everyone else
+	private final boolean hub = Settings.TOPOLOGY == Topology.HUB;
+	// Sends posted with the scene held, in the order the white board changed, waiting to be handed to the dispatcher
+	private final Queue<Runnable> outbox = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean sending = new AtomicBoolean();
+	// Tokens handed out over RMI to clients yet to say hello on the NIO transport
+	private final ConcurrentHashMap<String, byte[]> nioTokens = new ConcurrentHashMap<>();
+	// Sessions clients joined with over RMI, to go back to should their NIO connection close
+	private final ConcurrentHashMap<String, IRemoteWhiteBoard> rmiSessions = new ConcurrentHashMap<>();
+	private final SecureRandom random = new SecureRandom();
+	// What each client is doing, relayed to clients joining in a hub
+	private final ConcurrentHashMap<String, Action> statuses = new ConcurrentHashMap<>();
 	
 	/**
 	 * Constructor to initialize white board
 	 * @param frame reference to server GUI frame
 	 * @param username username of server
 	 * @param drawingPanel drawing panel of server GUI
+	 * @param sockets sockets the white board is exported on
 	 */
-	protected RemoteWhiteBoard(ServerGUI frame, String username, DrawingPanel drawingPanel) throws RemoteException {
+	protected RemoteWhiteBoard(ServerGUI frame, String username, DrawingPanel drawingPanel, Sockets sockets) throws RemoteException {
+		super(0, TunedSocketFactory.of(sockets), TunedSocketFactory.of(sockets));
 		this.frame = frame;
 		this.username = username;
 		SwingUtilities.invokeLater(() -> frame.addUser(username));
 		this.drawingPanel = drawingPanel;
+		dispatcher.addFrameListener(strokeBuffer::flush);
+		dispatcher.addFrameListener(presence::flush);
+		renderWorker = new RenderWorker(drawingPanel::commitAll, this::apply, Settings.FRAME_RATE);
 	}
 
 	/**
@@ -45,6 +77,9 @@ public class RemoteWhiteBoard extends UnicastRemoteObject implements IRemoteWhit
 	@Override
 	public void receiveMessage(String username, String message) throws RemoteException {
 		SwingUtilities.invokeLater(() -> frame.displayChat(username, message));
+		if (hub) {
+			dispatcher.broadcastExcept(username, c -> c.receiveMessage(username, message));
+		}
     }
 	
 	/**
@@ -53,36 +88,66 @@ public class RemoteWhiteBoard extends UnicastRemoteObject implements IRemoteWhit
 	 * @param message message to be sent
 	 */
 	public void sendMessage(String username, String message) throws RemoteException {
-		for (IRemoteWhiteBoard c : clients.values()) {
-			c.receiveMessage(username, message);
-		}
+		dispatcher.broadcast(c -> c.receiveMessage(username, message));
 	}
 	
 	/**
-	 * When someone else wants to connect to the active session
+	 * @return username of this server
+	 */
+	@Override
+	public String getUsername() throws RemoteException {
+		return username;
+	}
+
+	/**
+	 * @return how users in the session reach each other
+	 */
+	@Override
+	public Topology getTopology() throws RemoteException {
+		return Settings.TOPOLOGY;
+	}
+
+	/**
+	 * When someone else wants to connect to the active session. In a hub every user is handed out
+	 * with this server as their reference session, so that clients only ever send to this server
 	 * @param username username of new client connecting
 	 * @param client reference to client session
+	 * @param lastSequence sequence number of the last operation the client already has
 	 * @return returns a hash map of users mapped to their reference session
 	 */
 	@Override
-	public ConcurrentHashMap<String, IRemoteWhiteBoard> connect(String username, IRemoteWhiteBoard client) throws RemoteException {
+	public ConcurrentHashMap<String, IRemoteWhiteBoard> connect(String username, IRemoteWhiteBoard client, long lastSequence) throws RemoteException {
 		if (!clients.containsKey(username)) {
 			int choice = JOptionPane.showConfirmDialog(frame, username + " wants to share your whiteboard", "Connection Request", JOptionPane.YES_NO_OPTION);
 	        if (choice == JOptionPane.YES_OPTION) {
 	        	// Inform existing clients that new client has connected
 	        	for (IRemoteWhiteBoard c : clients.values()) {
-	    			c.connect(username, client);
+	    			c.connect(username, hub ? this : client, lastSequence);
 	    		}
 	        	
 	        	// Make a new copy without new client and with server to hand over to new client
-	        	ConcurrentHashMap<String, IRemoteWhiteBoard> newClients = new ConcurrentHashMap<String, IRemoteWhiteBoard>(clients);
+	        	ConcurrentHashMap<String, IRemoteWhiteBoard> newClients = new ConcurrentHashMap<String, IRemoteWhiteBoard>();
+	        	for (String name : clients.keySet()) {
+	        		newClients.put(name, hub ? this : clients.get(name));
+	        	}
 	        	newClients.put(this.username, this);				
 	        	
 	            clients.put(username, client);
 	            SwingUtilities.invokeLater(() -> frame.addUser(username));
 				
-				// Send existing white board state to client
-				client.sendImage(drawingPanel.sendImage());
+				// Send existing white board state to client ahead of anything else queued for it,
+				// everything posted before it going out without the client and everything after with it
+	            synchronized (drawingPanel.getScene()) {
+	            	PeerDispatcher.RemoteCall sync = sync(lastSequence);
+	            	post(() -> {
+	            		if (clients.get(username) == client) {
+	            			dispatcher.addPeer(username, client);
+	            			dispatcher.send(username, sync);
+	            			sendStatuses(username);
+	            		}
+	            	});
+	            }
+	            sendPosted();
 				
 				return newClients;
 	        }
@@ -90,26 +155,183 @@ public class RemoteWhiteBoard extends UnicastRemoteObject implements IRemoteWhit
 		return null;
 	}
 	
+	/**
+	 * Brings a client that has missed something handed out up to date again
+	 * @param username username of client
+	 * @param lastSequence sequence number of the last operation the client has applied
+	 */
+	@Override
+	public void resync(String username, long lastSequence) throws RemoteException {
+		if (!clients.containsKey(username)) {
+			return;
+		}
+		synchronized (drawingPanel.getScene()) {
+			PeerDispatcher.RemoteCall sync = sync(lastSequence);
+			post(() -> dispatcher.send(username, sync));
+		}
+		sendPosted();
+	}
+	
+	/**
+	 * Tells a client that has just joined what everyone is doing, which in a mesh the clients tell it themselves
+	 * @param joiner username of client
+	 */
+	private void sendStatuses(String joiner) {
+		presence.sendTo(action -> dispatcher.send(joiner, c -> c.inform(username, action)));
+		if (hub) {
+			synchronized (statuses) {
+				for (var entry : statuses.entrySet()) {
+					if (!entry.getKey().equals(joiner)) {
+						dispatcher.send(joiner, c -> c.inform(entry.getKey(), entry.getValue()));
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Hands a client that has joined a token to say hello with on the NIO transport, so that no one else
+	 * can take its place there
+	 * @param username username of client
+	 * @param client reference to the client session it joined with
+	 * @return a token good for a single connection, or null if the client has not joined with that session
+	 */
+	@Override
+	public byte[] nioToken(String username, IRemoteWhiteBoard client) throws RemoteException {
+		IRemoteWhiteBoard session = clients.get(username);
+		if (!hub || session == null || !session.equals(client)) {
+			return null;
+		}
+		byte[] token = new byte[16];
+		random.nextBytes(token);
+		nioTokens.put(username, token);
+		return token;
+	}
+	
+	/**
+	 * Works out how to bring a client up to date, sending only the operations it is missing unless there are
+	 * too many of them, or some have been cleared or compacted away, in which case a snapshot of what is on
+	 * the white board is sent.
+	 * Must be called with the scene held, the white board being captured straight away.
+	 * @param lastSequence sequence number of the last operation the client already has
+	 * @return call bringing the client up to date, which tells it the sequence number it is at even if nothing is missing
+	 */
+	private PeerDispatcher.RemoteCall sync(long lastSequence) {
+		SceneLog scene = drawingPanel.getScene();
+		long sequence = scene.getSequence();
+		List<Operation> missing = scene.since(lastSequence);
+		if (missing == null || missing.size() > Settings.SYNC_MAX_OPERATIONS) {
+			Future<SnapshotCache.Snapshot> snapshot = drawingPanel.sendImage();
+			return c -> sendSnapshot(c, snapshot);
+		}
+		byte[] operations = OperationCodec.encodeAll(missing);
+		return c -> c.sendOperations(operations, sequence);
+	}
+	
+	/**
+	 * Queues sending something that has to go out in the order the white board changed. Must be called with
+	 * the scene held, and followed by {@link #sendPosted()} once it has been let go.
+	 * @param send hands the call to the dispatcher
+	 */
+	private void post(Runnable send) {
+		outbox.add(send);
+	}
+	
+	/**
+	 * Hands everything posted to the dispatcher in order, outside the scene lock so that a peer with a full
+	 * queue never holds up painting or anyone committing. Only one thread hands them over at a time,
+	 * and whatever is posted meanwhile is handed over by it.
+	 */
+	private void sendPosted() {
+		while (!outbox.isEmpty() && sending.compareAndSet(false, true)) {
+			try {
+				Runnable send;
+				while ((send = outbox.poll()) != null) {
+					send.run();
+				}
+			} finally {
+				sending.set(false);
+			}
+		}
+	}
+	
 	/**
 	 * When other people want to disconnect
 	 * @param username username of person disconnecting
 	 */
 	@Override
 	public void disconnect(String username) throws RemoteException {
-		clients.remove(username);
+		boolean removed = clients.remove(username) != null;
+		nioTokens.remove(username);
+		rmiSessions.remove(username);
+		statuses.remove(username);
+		dispatcher.removePeer(username);
+		if (hub && removed) {
+			dispatcher.broadcast(c -> c.disconnect(username));
+		}
 		SwingUtilities.invokeLater(() -> {
 			frame.removeUser(username);
 		});
     }
 	
+	/**
+	 * Moves a client that has joined over to the NIO transport once it has opened its connection with
+	 * the token handed to it, anything already queued for it going out over RMI first
+	 * @param username username of client
+	 * @param token token the client said hello with
+	 * @param peer session sending frames down the client's connection
+	 * @return whether the client has joined and the token is the one handed to it
+	 */
+	@Override
+	public boolean attached(String username, byte[] token, FramedPeer peer) {
+		byte[] expected = nioTokens.remove(username);
+		if (expected == null || !MessageDigest.isEqual(expected, token)) {
+			return false;
+		}
+		IRemoteWhiteBoard session = clients.get(username);
+		if (session == null || session instanceof FramedPeer || !clients.replace(username, session, peer)) {
+			return false;
+		}
+		rmiSessions.put(username, session);
+		dispatcher.addPeer(username, peer);
+		return true;
+	}
+	
+	/**
+	 * Moves a client whose NIO connection has closed back to the session it joined with over RMI,
+	 * which it falls back to as well. Should it have gone, the calls to it fail and it is evicted.
+	 * @param username username of client
+	 * @param peer session that was sending frames down the client's connection
+	 */
+	@Override
+	public void detached(String username, FramedPeer peer) {
+		IRemoteWhiteBoard session = rmiSessions.remove(username);
+		if (session != null && clients.replace(username, peer, session)) {
+			dispatcher.addPeer(username, session);
+		}
+	}
+	
+	/**
+	 * Drops a client that keeps timing out and tells everyone else it has left
+	 * @param username username of client evicted
+	 */
+	private void evict(String username) {
+		nioTokens.remove(username);
+		rmiSessions.remove(username);
+		statuses.remove(username);
+		if (clients.remove(username) != null) {
+			SwingUtilities.invokeLater(() -> frame.removeUser(username));
+			dispatcher.broadcast(c -> c.disconnect(username));
+		}
+	}
+	
 	/**
 	 * Called when this server wants to disconnect
 	 * @param username username of this server
 	 */
 	public void disconnectAll(String username) throws RemoteException {
-		for (IRemoteWhiteBoard c : clients.values()) {
-			c.disconnect(username);
-		}
+		dispatcher.broadcast(c -> c.disconnect(username));
+		dispatcher.close(Settings.CALL_TIMEOUT_MILLIS);
 		clients.clear();
 	}
 	
@@ -118,23 +340,38 @@ public class RemoteWhiteBoard extends UnicastRemoteObject implements IRemoteWhit
 	 * @param username username of person to be kicked
 	 */
 	public void kick(String username) throws RemoteException {
-		IRemoteWhiteBoard client = clients.get(username);
-        if (client != null) {
-            client.disconnect(username);
-            clients.remove(username);
-        }
+		nioTokens.remove(username);
+		rmiSessions.remove(username);
+		statuses.remove(username);
+		if (clients.remove(username) != null) {
+			dispatcher.send(username, c -> c.disconnect(username));
+			dispatcher.removePeer(username);
+			if (hub) {
+				dispatcher.broadcast(c -> c.disconnect(username));
+			}
+		}
 	}
 	
 	/**
-	 * Informs everyone in the active session of this server's action
+	 * Informs everyone in the active session of this server's action once it has settled,
+	 * or along with the next thing sent
 	 * @param operation operation executed
 	 */
 	public void informAll(Action action) throws RemoteException {
-		for (IRemoteWhiteBoard c : clients.values()) {
-			c.inform(username, action);
+		presence.set(action);
+		if (!dispatcher.isCoalescing()) {
+			presence.flushNow();
 		}
 	}
 	
+	/**
+	 * Sends a change of this server's action to everyone in active session
+	 * @param action action now being done, or null if idle
+	 */
+	private void sendStatusAll(Action action) {
+		dispatcher.broadcast(c -> c.inform(username, action));
+	}
+	
 	/**
 	 * Called when others want to inform this server of their operation
 	 * @param username user executing the action
@@ -143,93 +380,135 @@ public class RemoteWhiteBoard extends UnicastRemoteObject implements IRemoteWhit
 	@Override
 	public void inform(String username, Action operation) throws RemoteException {
 		SwingUtilities.invokeLater(() -> frame.updateUserOperation(username, operation));
-    }
-
-	/**
-	 * Called when others want to draw a shape on this server's window
-	 * @param shape shape to be drawn
-	 * @param color color used
-	 * @param size shape's stroke size
-	 */
-	@Override
-	public void drawShape(Shape shape, Color color, float size) throws RemoteException {
-		SwingUtilities.invokeLater(() -> drawingPanel.drawShape(shape, color, size));
+		if (hub && clients.containsKey(username)) {
+			// Recorded and relayed together so that a client joining meanwhile never ends up with an older status
+			synchronized (statuses) {
+				if (operation == null) {
+					statuses.remove(username);
+				} else {
+					statuses.put(username, operation);
+				}
+				dispatcher.broadcastExcept(username, c -> c.inform(username, operation));
+			}
+		}
     }
 	
 	/**
-	 * Sends shape drawn by this server to everyone in active session
+	 * Commits shape drawn by this server and sends it to everyone in active session
+	 * @param strokeId id of the shape, see {@link #nextStrokeId()}
 	 * @param shape shape to be sent
 	 * @param color color used
 	 * @param size shape's stroke size
 	 */
-	public void sendShapeAll(Shape shape, Color  color, float size) throws RemoteException {
-		for (IRemoteWhiteBoard c : clients.values()) {
-			c.drawShape(shape, color, size);
-		}
+	public void sendShapeAll(long strokeId, Shape shape, Color  color, float size) throws RemoteException {
+		presence.flushNow();
+		Operation operation = Operation.shape(username, strokeId, shape, color, size);
+		publish(operation, OperationCodec.encode(operation));
+	}
+
+	/**
+	 * Takes shapes and text erased by this server off the white board and sends the delete to everyone in active session
+	 * @param strokeId id given to the first piece of any stroke split, see {@link #reserveStrokeIds(int)}
+	 * @param erasures shapes and text erased
+	 */
+	public void sendDeleteAll(long strokeId, List<Erasure> erasures) throws RemoteException {
+		presence.flushNow();
+		Operation operation = Operation.delete(username, strokeId, erasures);
+		publish(operation, OperationCodec.encode(operation));
 	}
 
 	/**
 	 * Server does not process images from clients directly
 	 * @param imageBytes 
+	 * @param sequence 
 	 */
 	@Override
-	public void sendImage(byte[] imageBytes) throws RemoteException {
+	public void sendImage(byte[] imageBytes, long sequence) throws RemoteException {
 		return;
 	}
-
+	
 	/**
-	 * Server does not directly clear
+	 * Server is always up to date so it does not process operations sent to sync it
+	 * @param operations 
+	 * @param sequence 
 	 */
 	@Override
-	public void clearImage() throws RemoteException {
+	public void sendOperations(byte[] operations, long sequence) throws RemoteException {
 		return;
 	}
 
 	/**
-	 * Called when others want to draw text on server side
-	 * @param string string to be rendered
-	 * @param x x coordinate of text
-	 * @param y y coordinate of text
-	 * @param color color used
-	 * @param font font's stroke size
+	 * Server does not directly clear
+	 * @param sequence 
 	 */
 	@Override
-	public void drawText(String string, int x, int y, Color color, Font font) throws RemoteException {
-		SwingUtilities.invokeLater(() -> drawingPanel.drawText(string, x, y, color, font));
-    }
+	public void clearImage(long sequence) throws RemoteException {
+		return;
+	}
 	
 	/**
-	 * Asks everyone in session to clear their image
+	 * Clears this server's image and asks everyone in session to clear theirs, telling them
+	 * which sequence number the clear took up so that they apply it in order
 	 */
 	public void clearAll() throws RemoteException {
-		for (IRemoteWhiteBoard c : clients.values()) {
-			c.clearImage();
+		synchronized (drawingPanel.getScene()) {
+			drawingPanel.clearImage();
+			long sequence = drawingPanel.getScene().getSequence();
+			post(() -> dispatcher.broadcast(c -> c.clearImage(sequence)));
 		}
+		sendPosted();
 	}
 	
 	/**
-	 * Sends the text from this server to everyone in active session
+	 * Commits the text from this server and sends it to everyone in active session
+	 * @param strokeId id of the text, see {@link #nextStrokeId()}
 	 * @param text text to be sent
 	 * @param x x coordinate of text
 	 * @param y y coordinate of text
 	 * @param color color used
 	 * @param font font's stroke size
 	 */
-	public void sendTextAll(String text, int x, int y, Color color, Font font) throws RemoteException {
-		for (IRemoteWhiteBoard c : clients.values()) {
-			c.drawText(text, x, y, color, font);
-		}
+	public void sendTextAll(long strokeId, String text, int x, int y, Color color, Font font) throws RemoteException {
+		presence.flushNow();
+		Operation operation = Operation.text(username, strokeId, text, x, y, color, font);
+		publish(operation, OperationCodec.encode(operation));
 	}
 	
 	/**
-	 * Sends existing state of white board to everyone in active session
+	 * Sends existing state of white board to everyone in active session.
+	 * The image is captured along with the operations queued before it, encoded once in the background
+	 * and the same bytes are sent to everyone.
 	 */
 	public void sendImageAll() throws RemoteException {
-		for (IRemoteWhiteBoard c : clients.values()) {
-			c.sendImage(drawingPanel.sendImage());
+		synchronized (drawingPanel.getScene()) {
+			Future<SnapshotCache.Snapshot> snapshot = drawingPanel.sendImage();
+			post(() -> dispatcher.broadcast(c -> sendSnapshot(c, snapshot)));
+		}
+		sendPosted();
+	}
+	
+	/**
+	 * Sends a client an image of the white board captured earlier, once it has been encoded
+	 * @param client reference to client session
+	 * @param snapshot image captured
+	 */
+	private void sendSnapshot(IRemoteWhiteBoard client, Future<SnapshotCache.Snapshot> snapshot) throws RemoteException {
+		try {
+			sendImage(client, drawingPanel.awaitImage(snapshot));
+		} catch (IOException e) {
+			throw new RemoteException("Could not encode white board", e);
 		}
 	}
 	
+	/**
+	 * Sends a client an encoded snapshot of the white board along with the version it was taken at
+	 * @param client reference to client session
+	 * @param image encoded image
+	 */
+	private void sendImage(IRemoteWhiteBoard client, SnapshotCache.Snapshot image) throws RemoteException {
+		client.sendImage(image.getBytes(), image.getVersion());
+	}
+	
 	/**
 	 * Sends preview from this server to everyone in active session
 	 * @param shape shape to be drawn
@@ -241,24 +520,175 @@ public class RemoteWhiteBoard extends UnicastRemoteObject implements IRemoteWhit
 	 * @param font font's stroke size
 	 */
 	public void sendPreviewAll(Shape shape, Color color, float size, String string, int x, int y, Font font) throws RemoteException {
-		for (IRemoteWhiteBoard c : clients.values()) {
-			c.updatePreview(username, shape, color, size, string, x, y, font);
-		}		
+		byte[] operation = OperationCodec.encode(Operation.preview(username, shape, color, size, string, x, y, font));
+		dispatcher.broadcastPreview(username, c -> c.applyOperation(operation));
 	}
 	
 	/**
-	 * Called when others want to send a preview to be rendered on this server
-	 * @param username user sending the preview
-	 * @param shape shape to be drawn
+	 * Starts a freehand stroke drawn by this server on everyone in active session
 	 * @param color color used
-	 * @param size shape's stroke size
-	 * @param string string to be rendered
-	 * @param x x coordinate of text
-	 * @param y y coordinate of text
-	 * @param font font's stroke size
+	 * @param size stroke size
+	 * @param x x coordinate of first point
+	 * @param y y coordinate of first point
+	 * @return id of the stroke, to be given to the confirmed shape once it is finished
+	 */
+	public long beginStrokeAll(Color color, float size, float x, float y) throws RemoteException {
+		long strokeId = nextStrokeId();
+		currentStroke = strokeId;
+		strokeBuffer.begin(strokeId);
+		broadcast(Operation.beginStroke(username, strokeId, color, size, x, y));
+		return strokeId;
+	}
+	
+	/**
+	 * Gives out an id for a shape or text drawn by this server
+	 * @return the id, unique for this user
+	 */
+	public long nextStrokeId() {
+		return reserveStrokeIds(1);
+	}
+	
+	/**
+	 * Gives out consecutive ids for shapes drawn by this server
+	 * @param count number of ids needed
+	 * @return the first of the ids
+	 */
+	public synchronized long reserveStrokeIds(int count) {
+		long first = strokeCount + 1;
+		strokeCount += count;
+		return first;
+	}
+	
+	/**
+	 * Adds a point to the stroke being drawn by this server. Points are sent in batches once per frame
+	 * @param x x coordinate of point
+	 * @param y y coordinate of point
+	 */
+	public void appendPointAll(float x, float y) throws RemoteException {
+		strokeBuffer.add(x, y);
+		if (!dispatcher.isCoalescing()) {
+			strokeBuffer.flush();
+		}
+	}
+	
+	/**
+	 * Sends the remaining points of the stroke being drawn by this server and ends it on everyone in active session
+	 */
+	public void endStrokeAll() throws RemoteException {
+		strokeBuffer.flush();
+		broadcast(Operation.endStroke(username, currentStroke));
+	}
+	
+	/**
+	 * Sends the points added to a stroke since the last flush to everyone in active session
+	 * @param strokeId id of the stroke
+	 * @param points new points as x and y coordinates one after the other
+	 */
+	private void sendPointsAll(long strokeId, float[] points) {
+		broadcast(Operation.appendPoints(username, strokeId, points));
+	}
+	
+	/**
+	 * Encodes an operation once and sends the same bytes to everyone in active session
+	 * @param operation operation to be sent
+	 */
+	private void broadcast(Operation operation) {
+		// A change of status still held back goes out just ahead of it, in the same batch
+		presence.flushNow();
+		byte[] encoded = OperationCodec.encode(operation);
+		dispatcher.broadcast(c -> c.applyOperation(encoded));
+	}
+	
+	/**
+	 * Commits a confirmed shape, text or delete and sends it to everyone in active session. In a hub it is
+	 * stamped with the sequence number this server's white board gave it and goes back to whoever drew it as well.
+	 * It is posted while the scene is held so that everyone is handed operations in the order they were committed,
+	 * and handed to the dispatcher once the scene has been let go.
+	 * @param operation operation to be committed
+	 * @param encoded the same operation encoded by OperationCodec
+	 */
+	private void publish(Operation operation, byte[] encoded) {
+		synchronized (drawingPanel.getScene()) {
+			drawingPanel.commit(operation);
+			if (hub) {
+				long sequence = operation.getSequence();
+				post(() -> dispatcher.broadcast(c -> c.applySequenced(encoded, sequence)));
+			} else {
+				post(() -> dispatcher.broadcast(c -> c.applyOperation(encoded)));
+			}
+		}
+		sendPosted();
+	}
+	
+	/**
+	 * Called when others want to apply a drawing operation on this server.
+	 * In a hub confirmed shapes, text and deletes are committed straight away and handed out in order,
+	 * while the bytes of anything else are relayed as they are to everyone other than the sender.
+	 * Confirmed operations are always committed before returning, so that a client joining afterwards is synced with them.
+	 * @param operation operation encoded by OperationCodec
 	 */
 	@Override
-	public void updatePreview(String username, Shape shape, Color color, float size, String string, int x, int y, Font font) throws RemoteException {
-		SwingUtilities.invokeLater(() -> drawingPanel.drawPreview(username, shape, color, size, string, x, y, font));
-    }
+	public void applyOperation(byte[] operation) throws RemoteException {
+		Operation op = OperationCodec.decode(operation);
+		boolean confirmed = op.getType() == Operation.Type.SHAPE || op.getType() == Operation.Type.TEXT
+				|| op.getType() == Operation.Type.DELETE;
+		if (!hub && confirmed) {
+			drawingPanel.commit(op);
+		} else if (!hub) {
+			renderWorker.submit(op);
+		} else if (confirmed) {
+			publish(op, operation);
+		} else {
+			if (op.getType() == Operation.Type.PREVIEW) {
+				dispatcher.broadcastPreviewExcept(op.getUsername(), c -> c.applyOperation(operation));
+			} else {
+				dispatcher.broadcastExcept(op.getUsername(), c -> c.applyOperation(operation));
+			}
+			renderWorker.submit(op);
+		}
+	}
+	
+	/**
+	 * Called when a client sends several calls at once, which are made in order
+	 * @param calls the calls encoded as frames by FrameCodec
+	 */
+	@Override
+	public void applyBatch(byte[] calls) throws RemoteException {
+		FrameCodec.dispatchAll(calls, this, this);
+	}
+	
+	/**
+	 * Server hands out sequenced operations rather than receiving them
+	 * @param operation 
+	 * @param sequence 
+	 */
+	@Override
+	public void applySequenced(byte[] operation, long sequence) throws RemoteException {
+		return;
+	}
+	
+	/**
+	 * Applies a decoded preview or stroke update to the drawing panel on the event dispatch thread,
+	 * confirmed shapes and text having been committed already as they arrived
+	 * @param op operation to be applied
+	 */
+	private void apply(Operation op) {
+		switch (op.getType()) {
+			case PREVIEW:
+				drawingPanel.drawPreview(op.getUsername(), op.getShape(), op.getColor(), op.getSize(), op.getString(), op.getX(), op.getY(), op.getFont());
+				break;
+			case STROKE_BEGIN:
+				drawingPanel.beginStroke(op.getUsername(), op.getStrokeId(), op.getColor(), op.getSize(), op.getPoints()[0], op.getPoints()[1]);
+				break;
+			case STROKE_APPEND:
+				drawingPanel.appendPoints(op.getUsername(), op.getStrokeId(), op.getPoints());
+				break;
+			case STROKE_END:
+				drawingPanel.endStroke(op.getUsername(), op.getStrokeId());
+				break;
+			default:
+				// Confirmed shapes and text are committed as they arrive
+				break;
+		}
+	}
 }
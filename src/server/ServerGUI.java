@@ -80,7 +80,6 @@ public class ServerGUI extends JFrame {
 			        	return;
 			        }
 				}
-				drawingPanel.clearImage();
 				try {
 					remoteWhiteBoard.clearAll();
 				} catch (RemoteException e1) {
@@ -258,6 +257,20 @@ public class ServerGUI extends JFrame {
 		actionsGroup.add(tglbtnText);
 		panel.add(tglbtnText);
 		
+		// Erases whole strokes rather than painting over them, kept below the board as the toolbar is full
+		JToggleButton tglbtnStrokeEraser = new JToggleButton("Stroke Eraser");
+		tglbtnStrokeEraser.addItemListener(new ItemListener() {
+			public void itemStateChanged(ItemEvent e) {
+				// Set draw mode as stroke eraser
+				if (e.getStateChange() == ItemEvent.SELECTED) {
+					drawingPanel.setAction(Action.STROKE_ERASER);
+				}
+			}
+		});
+		actionsGroup.add(tglbtnStrokeEraser);
+		tglbtnStrokeEraser.setBounds(76, 342, 120, 21);
+		contentPane.add(tglbtnStrokeEraser);
+		
 		// Color picker
 		JLabel lblColor = new JLabel("Color:");
 		lblColor.setBounds(5, 347, 50, 13);
@@ -468,7 +481,7 @@ public class ServerGUI extends JFrame {
      * @param operation user's current operation
      */
 	public void updateUserOperation(String username, Action operation) {
-    	if (operation == Action.ERASER) {
+    	if (operation == Action.ERASER || operation == Action.STROKE_ERASER) {
     		((JLabel) users.get(username).getComponent(0)).setText(username + ": " + "Erasing ");
     	} else if (operation == Action.TEXT) {
     		((JLabel) users.get(username).getComponent(0)).setText(username + ": " + "Typing ");
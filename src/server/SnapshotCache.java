@@ -0,0 +1,152 @@
+package server;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Caches the encoded image of the white board so that it is encoded at most once for every
+ * version of the canvas, however many clients it is sent to. The canvas is captured when the image
+ * is asked for, so that it matches whatever has been queued to be sent before it. Capturing only takes
+ * references to what is on the white board, none of which changes afterwards, so that the caller holds the
+ * canvas briefly and every tile and shape is copied and encoded on a background thread, with everyone asking
+ * for the same version sharing the same bytes.
+ * When enabled, how often an image is reused is printed every time one is asked for.
+ *
+ * @author Si Yong Lim
+ */
+public class SnapshotCache {
+	/**
+	 * Encodes a canvas captured earlier
+	 */
+	public interface Encoder {
+		Snapshot encode() throws IOException;
+	}
+
+	/**
+	 * Captures the canvas as it stands, to be encoded later, without copying any of it
+	 */
+	public interface Capturer {
+		Encoder capture();
+	}
+
+	/**
+	 * An encoded image of the canvas along with the version it was taken at
+	 */
+	public static class Snapshot {
+		private final long version;
+		private final byte[] bytes;
+
+		public Snapshot(long version, byte[] bytes) {
+			this.version = version;
+			this.bytes = bytes;
+		}
+
+		/**
+		 * @return the version of the canvas included in the image
+		 */
+		public long getVersion() {
+			return version;
+		}
+
+		/**
+		 * @return the encoded image, shared so it must not be modified
+		 */
+		public byte[] getBytes() {
+			return bytes;
+		}
+	}
+
+	private final LongSupplier version;
+	private final Capturer capturer;
+	private final boolean report;
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "whiteboard-snapshot");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private Future<Snapshot> latest = null;
+	private long latestVersion = -1;
+
+	/**
+	 * @param version gives the current version of the canvas
+	 * @param capturer captures the canvas to be encoded
+	 * @param report whether to print how often an image is reused
+	 */
+	public SnapshotCache(LongSupplier version, Capturer capturer, boolean report) {
+		this.version = version;
+		this.capturer = capturer;
+		this.report = report;
+	}
+
+	/**
+	 * Asks for the image of the current version of the canvas, capturing the canvas to be encoded if nobody
+	 * has asked for this version yet. Must be called with the canvas held so that it does not change meanwhile,
+	 * which is only for as long as capturing takes.
+	 * @return the snapshot, once encoded
+	 */
+	public synchronized Future<Snapshot> request() {
+		long current = version.getAsLong();
+		if (latest != null && latestVersion == current && !latest.isCancelled()) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+			latest = executor.submit(capturer.capture()::encode);
+			latestVersion = current;
+		}
+		if (report) {
+			System.out.println(this);
+		}
+		return latest;
+	}
+
+	/**
+	 * Waits for a snapshot asked for earlier to be encoded.
+	 * Must not be called on the event dispatch thread.
+	 * @param snapshot snapshot given by {@link #request()}
+	 * @return the snapshot
+	 */
+	public Snapshot get(Future<Snapshot> snapshot) throws IOException {
+		try {
+			return snapshot.get();
+		} catch (ExecutionException e) {
+			synchronized (this) {
+				if (latest == snapshot) {
+					latest = null;
+				}
+			}
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * @return number of times a snapshot already encoded was given out
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return number of times the canvas had to be encoded
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	@Override
+	public String toString() {
+		return "Snapshots encoded: " + getMisses() + ", reused: " + getHits();
+	}
+}